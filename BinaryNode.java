@@ -0,0 +1,158 @@
+//self-specializing implementation of binary operators. Every Expr.Binary starts out
+//UNINITIALIZED, rewrites its state to a variant for the operand types it sees first and
+//falls back to GENERIC for good once a specialization's type guard fails. States are small
+//ints rather than subclasses so the dispatch in execute stays a tableswitch HotSpot can
+//inline, instead of a megamorphic virtual call.
+final class BinaryNode {
+    static final byte UNINITIALIZED = 0;
+    static final byte GENERIC = 1;
+    //arithmetic on numbers, always produces a number
+    static final byte NUMBER_ADD = 2;
+    static final byte NUMBER_SUBTRACT = 3;
+    static final byte NUMBER_MULTIPLY = 4;
+    static final byte NUMBER_DIVIDE = 5;
+    //comparisons of numbers
+    static final byte NUMBER_GREATER = 6;
+    static final byte NUMBER_GREATER_EQUAL = 7;
+    static final byte NUMBER_LESS = 8;
+    static final byte NUMBER_LESS_EQUAL = 9;
+    static final byte STRING_CONCAT = 10;
+    //equality is defined for every pair of values, so these need no type guard
+    static final byte EQUAL = 11;
+    static final byte NOT_EQUAL = 12;
+
+    private BinaryNode(){}
+
+    static Object execute(Expr.Binary expr, Object l, Object r){
+        switch(expr.node){
+            case NUMBER_ADD:
+                if(l instanceof Double && r instanceof Double) return (double)l + (double)r;
+                break;
+            case STRING_CONCAT:
+                if(l instanceof String && r instanceof String) return (String)l + (String)r;
+                break;
+            case NUMBER_SUBTRACT:
+                if(l instanceof Double && r instanceof Double) return (double)l - (double)r;
+                break;
+            case NUMBER_MULTIPLY:
+                if(l instanceof Double && r instanceof Double) return (double)l * (double)r;
+                break;
+            case NUMBER_DIVIDE:
+                //division by zero stays specialized, generic just reports it
+                if(l instanceof Double && r instanceof Double){
+                    if((double)r != 0) return (double)l / (double)r;
+                    return generic(expr, l, r);
+                }
+                break;
+            case NUMBER_GREATER:
+                if(l instanceof Double && r instanceof Double) return (double)l > (double)r;
+                break;
+            case NUMBER_GREATER_EQUAL:
+                if(l instanceof Double && r instanceof Double) return (double)l >= (double)r;
+                break;
+            case NUMBER_LESS:
+                if(l instanceof Double && r instanceof Double) return (double)l < (double)r;
+                break;
+            case NUMBER_LESS_EQUAL:
+                if(l instanceof Double && r instanceof Double) return (double)l <= (double)r;
+                break;
+            case EQUAL:
+                return Interpreter.isEqual(l, r);
+            case NOT_EQUAL:
+                return !Interpreter.isEqual(l, r);
+            case GENERIC:
+                return generic(expr, l, r);
+            case UNINITIALIZED:
+                expr.node = specialize(expr.op.type, l, r);
+                return execute(expr, l, r);
+        }
+        //guard failed: the node has seen more than one type combination
+        expr.node = GENERIC;
+        return generic(expr, l, r);
+    }
+    static boolean isArithmetic(byte node){
+        return node >= NUMBER_ADD && node <= NUMBER_DIVIDE;
+    }
+    static boolean isComparison(byte node){
+        return node >= NUMBER_GREATER && node <= NUMBER_LESS_EQUAL;
+    }
+    //unboxed counterparts of the number states, only valid while the node is in one of them
+    static double arithmetic(Expr.Binary expr, double l, double r){
+        switch(expr.node){
+            case NUMBER_ADD: return l + r;
+            case NUMBER_SUBTRACT: return l - r;
+            case NUMBER_MULTIPLY: return l * r;
+            case NUMBER_DIVIDE:
+                if(r == 0) throw new RuntimeError(expr.op, "Cannot divide by Zero.");
+                return l / r;
+            default: throw new IllegalStateException("not an arithmetic node: " + expr.node);
+        }
+    }
+    static boolean comparison(Expr.Binary expr, double l, double r){
+        switch(expr.node){
+            case NUMBER_GREATER: return l > r;
+            case NUMBER_GREATER_EQUAL: return l >= r;
+            case NUMBER_LESS: return l < r;
+            case NUMBER_LESS_EQUAL: return l <= r;
+            default: throw new IllegalStateException("not a comparison node: " + expr.node);
+        }
+    }
+    private static byte specialize(TokenType type, Object l, Object r){
+        boolean numbers = l instanceof Double && r instanceof Double;
+        switch(type){
+            case PLUS:
+                if(numbers) return NUMBER_ADD;
+                if(l instanceof String && r instanceof String) return STRING_CONCAT;
+                break;
+            case MINUS: if(numbers) return NUMBER_SUBTRACT; break;
+            case STAR: if(numbers) return NUMBER_MULTIPLY; break;
+            case SLASH: if(numbers) return NUMBER_DIVIDE; break;
+            case GREATER: if(numbers) return NUMBER_GREATER; break;
+            case GREATER_EQUAL: if(numbers) return NUMBER_GREATER_EQUAL; break;
+            case LESS: if(numbers) return NUMBER_LESS; break;
+            case LESS_EQUAL: if(numbers) return NUMBER_LESS_EQUAL; break;
+            case EQUAL_EQUAL: return EQUAL;
+            case BANG_EQUAL: return NOT_EQUAL;
+        }
+        return GENERIC;
+    }
+    private static Object generic(Expr.Binary expr, Object l, Object r){
+        switch(expr.op.type){
+            case GREATER:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l > (double)r;
+            case GREATER_EQUAL:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l >= (double)r;    
+            case LESS:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l < (double)r;   
+            case LESS_EQUAL:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l <= (double)r;        
+            case MINUS:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l - (double)r;
+            case PLUS:
+                if(l instanceof Double && r instanceof Double) return (double)l + (double)r;
+                if(l instanceof String && r instanceof String) return (String)l + (String)r;
+                throw new RuntimeError(expr.op, "Both operands must be two numbers or two strings.");
+            case SLASH:
+                checkNumberOperands(expr.op, l, r);
+                if((double)r == 0) throw new RuntimeError(expr.op, "Cannot divide by Zero.");
+                return (double)l / (double)r;
+            case STAR:
+                checkNumberOperands(expr.op, l, r);
+                return (double)l * (double)r;
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(l, r);
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(l, r);
+        }
+        return null;
+    }
+    private static void checkNumberOperands(Token op, Object l, Object r){
+        if(l instanceof Double && r instanceof Double) return;
+        throw new RuntimeError(op, "Operands must be numbers.");
+    }
+}
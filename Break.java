@@ -1,5 +0,0 @@
-public class Break extends RuntimeException {
-    Break(){
-        super(null, null, false, false);
-    }
-}
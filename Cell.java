@@ -0,0 +1,8 @@
+//box for a local that a nested function captures. The frame slot holds the cell rather than the
+//value, and each closure keeps the cells it uses instead of the frames they were declared in.
+final class Cell {
+    Object value;
+    Cell(Object value){
+        this.value = value;
+    }
+}
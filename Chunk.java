@@ -0,0 +1,41 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a compiled function body: bytecode, the source line of every byte and the constant pool
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    Object[] constants;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int b, int ln){
+        if(count == code.length){
+            code = Arrays.copyOf(code, count*2);
+            lines = Arrays.copyOf(lines, count*2);
+        }
+        code[count] = (byte)b;
+        lines[count] = ln;
+        count++;
+    }
+    int addConstant(Object val){
+        //functions are unique, everything else is shared between identical literals
+        if(!(val instanceof VM.Function)){
+            Integer idx = constantIndex.get(val);
+            if(idx != null) return idx;
+            constantIndex.put(val, constantList.size());
+        }
+        constantList.add(val);
+        return constantList.size()-1;
+    }
+    //freeze the constant pool into an array for the VM
+    void finish(){
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
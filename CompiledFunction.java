@@ -0,0 +1,15 @@
+//base class of the hidden classes JitCompiler generates for Lox functions and hot loops
+abstract class CompiledFunction {
+    //literals, tokens for error reporting and other objects the generated code refers to
+    Object[] constants;
+    //returned by invoke when it ended in a tail call, which it left in the interpreter for LoxFunction.call
+    static final Object TAIL_CALL = new Object();
+    //returned by a compiled loop that ran to its end, as opposed to a return inside it
+    static final Object LOOP_EXIT = new Object();
+    abstract Object invoke(Interpreter interpreter, Object[] args);
+    //functions of up to three parameters also take their arguments as they are, null past the arity,
+    //so a call doesn't need an array
+    Object invoke(Interpreter interpreter, Object a, Object b, Object c){
+        throw new IllegalStateException("compiled for more than three arguments");
+    }
+}
@@ -0,0 +1,414 @@
+import java.util.ArrayList;
+import java.util.List;
+
+//compiles resolved Stmt/Expr trees into bytecode for the VM
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Local{
+        //interned, see Symbols
+        final int name;
+        final int depth;
+        boolean captured = false;
+        Local(int name, int depth){
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+    private static class UpvalueRef{
+        final boolean isLocal;
+        final int index;
+        UpvalueRef(boolean isLocal, int index){
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+    private static class Loop{
+        final Loop enclosing;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+        Loop(Loop enclosing, int scopeDepth){
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+    //per-function compilation state, chained to the enclosing function for upvalue resolution
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final VM.Function function;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+        //values on the stack at this point of the code, slot zero included
+        int stackDepth = 1;
+        FunctionState(FunctionState enclosing, VM.Function function){
+            this.enclosing = enclosing;
+            this.function = function;
+            //slot zero holds the closure being called
+            locals.add(new Local(-1, 0));
+        }
+    }
+    private static final int MAX_SLOTS = 256;
+    private final VM vm;
+    private FunctionState state;
+    //line of the most recently visited token, attached to emitted bytes
+    private int ln = 1;
+    Compiler(VM vm){
+        this.vm = vm;
+    }
+
+    VM.Function compile(List<Stmt> statements){
+        state = new FunctionState(null, new VM.Function(null, 0));
+        for(Stmt stmt: statements) compile(stmt);
+        emitOp(OpCode.NIL, 1);
+        emitOp(OpCode.RETURN, -1);
+        state.function.chunk.finish();
+        return state.function;
+    }
+    //implementing Stmt visitor
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        beginScope();
+        for(Stmt s: stmt.statements) compile(s);
+        endScope();
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        compile(stmt.expr);
+        emitOp(OpCode.POP, -1);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        ln = stmt.name.ln;
+        //declared before the body is compiled so the function can call itself
+        if(state.scopeDepth > 0) addLocal(stmt.name);
+        function(stmt);
+        ln = stmt.name.ln;
+        if(state.scopeDepth == 0) emitGlobal(OpCode.DEFINE_GLOBAL, stmt.name.symbol, -1);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        int thenJump = conditionJump(stmt.condition);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch == null){
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        compile(stmt.expr);
+        emitOp(OpCode.PRINT, -1);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        ln = stmt.keyword.ln;
+        if(stmt.value != null) compile(stmt.value);
+        else emitOp(OpCode.NIL, 1);
+        emitOp(OpCode.RETURN, -1);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        if(stmt.initializer != null) compile(stmt.initializer);
+        else emitOp(OpCode.NIL, 1);
+        ln = stmt.name.ln;
+        //a local simply stays on the stack in the slot it was pushed to
+        if(state.scopeDepth > 0) addLocal(stmt.name);
+        else emitGlobal(OpCode.DEFINE_GLOBAL, stmt.name.symbol, -1);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        Loop loop = new Loop(state.loop, state.scopeDepth);
+        int loopStart = state.function.chunk.count;
+        int exitJump = conditionJump(stmt.condition);
+        state.loop = loop;
+        compile(stmt.body);
+        state.loop = loop.enclosing;
+        //continue lands on the increment of a for loop
+        for(int jump: loop.continueJumps) patchJump(jump);
+        if(stmt.increment != null){
+            compile(stmt.increment);
+            emitOp(OpCode.POP, -1);
+        }
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        for(int jump: loop.breakJumps) patchJump(jump);
+        return null;
+    }
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt){
+        ln = stmt.name.ln;
+        //the Resolver already reports these, this only keeps the compiler from emitting a bad jump
+        if(state.loop == null){
+            Lox.error(stmt.name, "Can't use 'break' outside of a loop.");
+            return null;
+        }
+        discardLocals(state.loop.scopeDepth);
+        state.loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt){
+        ln = stmt.keyword.ln;
+        if(state.loop == null){
+            Lox.error(stmt.keyword, "Can't use 'continue' outside of a loop.");
+            return null;
+        }
+        discardLocals(state.loop.scopeDepth);
+        state.loop.continueJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+    //implementing Expr visitor
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        compile(expr.value);
+        ln = expr.name.ln;
+        namedVariable(expr.name, true);
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        compile(expr.l);
+        compile(expr.r);
+        ln = expr.op.ln;
+        switch(expr.op.type){
+            case GREATER: emitOp(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emitOp(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emitOp(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emitOp(OpCode.LESS_EQUAL, -1); break;
+            case MINUS: emitOp(OpCode.SUBTRACT, -1); break;
+            case PLUS: emitOp(OpCode.ADD, -1); break;
+            case SLASH: emitOp(OpCode.DIVIDE, -1); break;
+            case STAR: emitOp(OpCode.MULTIPLY, -1); break;
+            case BANG_EQUAL: emitOp(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emitOp(OpCode.EQUAL, -1); break;
+        }
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        compile(expr.callee);
+        ln = expr.paren.ln;
+        //the tree-walker rejects a non-callable before evaluating any argument
+        if(!expr.arguments.isEmpty()) emitOp(OpCode.CHECK_CALLABLE, 0);
+        for(Expr arg: expr.arguments) compile(arg);
+        ln = expr.paren.ln;
+        emitOp(OpCode.CALL, -expr.arguments.size());
+        emit(expr.arguments.size());
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        compile(expr.expr);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        if(expr.val == null) emitOp(OpCode.NIL, 1);
+        else if(expr.val == Boolean.TRUE) emitOp(OpCode.TRUE, 1);
+        else if(expr.val == Boolean.FALSE) emitOp(OpCode.FALSE, 1);
+        else emitConstant(OpCode.CONSTANT, expr.val, 1);
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        compile(expr.l);
+        ln = expr.op.ln;
+        int endJump = emitJump(expr.op.type == TokenType.OR? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emitOp(OpCode.POP, -1);
+        compile(expr.r);
+        patchJump(endJump);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        compile(expr.r);
+        ln = expr.op.ln;
+        if(expr.op.type == TokenType.BANG) emitOp(OpCode.NOT, 0);
+        else emitOp(OpCode.NEGATE, 0);
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        ln = expr.name.ln;
+        namedVariable(expr.name, false);
+        return null;
+    }
+    //util
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+    private void function(Stmt.Function stmt){
+        state = new FunctionState(state, new VM.Function(stmt.name.lexeme, stmt.params.size()));
+        beginScope();
+        for(Token param: stmt.params){
+            addLocal(param);
+            state.stackDepth++;
+        }
+        state.function.maxStack = state.stackDepth;
+        for(Stmt s: stmt.body) compile(s);
+        emitOp(OpCode.NIL, 1);
+        emitOp(OpCode.RETURN, -1);
+        FunctionState fnState = state;
+        fnState.function.upvalueCount = fnState.upvalues.size();
+        fnState.function.chunk.finish();
+        state = state.enclosing;
+        ln = stmt.name.ln;
+        emitConstant(OpCode.CLOSURE, fnState.function, 1);
+        for(UpvalueRef upvalue: fnState.upvalues){
+            emit(upvalue.isLocal? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+    //jumps when the condition is falsey, comparing numbers directly instead of through a Boolean
+    private int conditionJump(Expr condition){
+        if(condition instanceof Expr.Binary){
+            Expr.Binary cmp = (Expr.Binary)condition;
+            byte op = -1;
+            switch(cmp.op.type){
+                case GREATER: op = OpCode.JUMP_IF_NOT_GREATER; break;
+                case GREATER_EQUAL: op = OpCode.JUMP_IF_NOT_GREATER_EQUAL; break;
+                case LESS: op = OpCode.JUMP_IF_NOT_LESS; break;
+                case LESS_EQUAL: op = OpCode.JUMP_IF_NOT_LESS_EQUAL; break;
+            }
+            if(op != -1){
+                compile(cmp.l);
+                compile(cmp.r);
+                ln = cmp.op.ln;
+                return emitJump(op);
+            }
+        }
+        compile(condition);
+        return emitJump(OpCode.POP_JUMP_IF_FALSE);
+    }
+    private void namedVariable(Token name, boolean assign){
+        int arg = resolveLocal(state, name.symbol);
+        if(arg != -1){
+            emitOp(assign? OpCode.SET_LOCAL : OpCode.GET_LOCAL, assign? 0 : 1);
+            emit(arg);
+            return;
+        }
+        arg = resolveUpvalue(state, name.symbol);
+        if(arg != -1){
+            emitOp(assign? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, assign? 0 : 1);
+            emit(arg);
+            return;
+        }
+        emitGlobal(assign? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, name.symbol, assign? 0 : 1);
+    }
+    private int resolveLocal(FunctionState fn, int name){
+        for(int i = fn.locals.size()-1; i > 0; i--){
+            if(fn.locals.get(i).name == name) return i;
+        }
+        return -1;
+    }
+    private int resolveUpvalue(FunctionState fn, int name){
+        if(fn.enclosing == null) return -1;
+        int local = resolveLocal(fn.enclosing, name);
+        if(local != -1){
+            fn.enclosing.locals.get(local).captured = true;
+            return addUpvalue(fn, true, local);
+        }
+        int upvalue = resolveUpvalue(fn.enclosing, name);
+        if(upvalue != -1) return addUpvalue(fn, false, upvalue);
+        return -1;
+    }
+    private int addUpvalue(FunctionState fn, boolean isLocal, int index){
+        for(int i = 0; i < fn.upvalues.size(); i++){
+            UpvalueRef upvalue = fn.upvalues.get(i);
+            if(upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        if(fn.upvalues.size() == MAX_SLOTS){
+            Lox.error(ln, "Too many closure variables in function.");
+            return 0;
+        }
+        fn.upvalues.add(new UpvalueRef(isLocal, index));
+        return fn.upvalues.size()-1;
+    }
+    private void addLocal(Token name){
+        if(state.locals.size() == MAX_SLOTS){
+            Lox.error(name, "Too many local variables in function.");
+            return;
+        }
+        state.locals.add(new Local(name.symbol, state.scopeDepth));
+    }
+    private void beginScope(){
+        state.scopeDepth++;
+    }
+    private void endScope(){
+        state.scopeDepth--;
+        List<Local> locals = state.locals;
+        while(locals.size() > 1 && locals.get(locals.size()-1).depth > state.scopeDepth){
+            emitOp(locals.get(locals.size()-1).captured? OpCode.CLOSE_UPVALUE : OpCode.POP, -1);
+            locals.remove(locals.size()-1);
+        }
+    }
+    //pops the locals a break or continue jumps out of, without forgetting them at compile time
+    //or changing the tracked stack depth of the code that follows
+    private void discardLocals(int depth){
+        List<Local> locals = state.locals;
+        for(int i = locals.size()-1; i > 0 && locals.get(i).depth > depth; i--){
+            emit(locals.get(i).captured? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+    private void emit(int b){
+        state.function.chunk.write(b, ln);
+    }
+    //emits an opcode and records how it changes the stack depth, so the VM can size frames up front
+    private void emitOp(byte op, int stackEffect){
+        emit(op);
+        state.stackDepth += stackEffect;
+        if(state.stackDepth > state.function.maxStack) state.function.maxStack = state.stackDepth;
+    }
+    private void emitGlobal(byte op, int symbol, int stackEffect){
+        emitConstant(op, vm.global(symbol), stackEffect);
+    }
+    private void emitConstant(byte op, Object constant, int stackEffect){
+        int idx = state.function.chunk.addConstant(constant);
+        if(idx > 0xffff){
+            Lox.error(ln, "Too many constants in one chunk.");
+            return;
+        }
+        emitOp(op, stackEffect);
+        emit(idx >> 8);
+        emit(idx);
+    }
+    private int emitJump(byte op){
+        int stackEffect = 0;
+        if(op == OpCode.POP_JUMP_IF_FALSE) stackEffect = -1;
+        else if(op != OpCode.JUMP && op != OpCode.JUMP_IF_FALSE && op != OpCode.JUMP_IF_TRUE) stackEffect = -2;
+        emitOp(op, stackEffect);
+        emit(0xff);
+        emit(0xff);
+        return state.function.chunk.count-2;
+    }
+    private void patchJump(int offset){
+        Chunk chunk = state.function.chunk;
+        //jump is relative to the byte after the operand
+        int jump = chunk.count - offset - 2;
+        if(jump > 0xffff) Lox.error(ln, "Too much code to jump over.");
+        chunk.code[offset] = (byte)(jump >> 8);
+        chunk.code[offset+1] = (byte)jump;
+    }
+    private void emitLoop(int loopStart){
+        emit(OpCode.LOOP);
+        int offset = state.function.chunk.count - loopStart + 2;
+        if(offset > 0xffff) Lox.error(ln, "Loop body too large.");
+        emit(offset >> 8);
+        emit(offset);
+    }
+}
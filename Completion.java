@@ -0,0 +1,9 @@
+//how a statement finished executing, returned by the interpreter instead of throwing for jumps.
+//the value of a return, or the function and arguments of a tail call, are left in the interpreter.
+enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN,
+    TAIL_CALL
+}
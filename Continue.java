@@ -1,5 +0,0 @@
-public class Continue extends RuntimeException {
-    Continue(){
-        super(null, null, false, false);
-    }
-}
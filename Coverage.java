@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+//coverage behind --coverage. Every statement, branch outcome and function gets a node id, and the
+//interpreter counts into a long[] indexed by it. A statement's own count is at its id, the outcomes
+//of an if, a loop or an and/or and the calls of a function follow it. Ids are handed out after the
+//optimizer ran, so code it removed as dead is not reported.
+class Coverage implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    //a loop's outcomes are branches too, told apart to report the hottest loops
+    private static final byte STATEMENT = 0, BRANCH = 1, LOOP = 2, FUNCTION = 3;
+    //what a node id counts
+    private static class Site{
+        final byte kind;
+        final int ln;
+        //first id of the branch's outcomes, LCOV numbers the outcomes of a branch from there
+        final int block;
+        final String name;
+        Site(byte kind, int ln, int block, String name){
+            this.kind = kind;
+            this.ln = ln;
+            this.block = block;
+            this.name = name;
+        }
+    }
+    private final List<Site> sites = new ArrayList<>();
+    private long[] hits = new long[0];
+
+    //hands out ids to the statements and returns the table to count into
+    long[] instrument(List<Stmt> statements){
+        for(Stmt stmt: statements) stmt.accept(this);
+        hits = Arrays.copyOf(hits, sites.size());
+        return hits;
+    }
+    private int site(byte kind, int ln, String name){
+        sites.add(new Site(kind, ln, -1, name));
+        return sites.size() - 1;
+    }
+    //an if's then and else, a loop's iterations and exits, an and/or short-circuiting or not
+    private void branches(byte kind, int block, int ln){
+        sites.add(new Site(kind, ln, block, null));
+        sites.add(new Site(kind, ln, block, null));
+    }
+    private void expr(Expr expr){
+        if(expr != null) expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        for(Stmt s: stmt.statements) s.accept(this);
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        expr(stmt.expr);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        site(FUNCTION, stmt.name.ln, stmt.name.lexeme + ":" + stmt.name.ln);
+        for(Stmt s: stmt.body) s.accept(this);
+        return null;
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        branches(BRANCH, stmt.id + 1, stmt.ln);
+        expr(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        expr(stmt.expr);
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        expr(stmt.value);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        expr(stmt.initializer);
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        branches(LOOP, stmt.id + 1, stmt.ln);
+        expr(stmt.condition);
+        stmt.body.accept(this);
+        expr(stmt.increment);
+        return null;
+    }
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        return null;
+    }
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt){
+        stmt.id = site(STATEMENT, stmt.ln, null);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        expr(expr.value);
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        expr(expr.l);
+        expr(expr.r);
+        return null;
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        expr(expr.expr);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        expr.id = sites.size();
+        branches(BRANCH, expr.id, expr.op.ln);
+        expr(expr.l);
+        expr(expr.r);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        expr(expr.r);
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        expr(expr.callee);
+        for(Expr arg: expr.arguments) expr(arg);
+        return null;
+    }
+
+    //a summary and the loops that ran the most iterations, the usual place to start optimizing
+    void report(PrintStream out){
+        TreeMap<Integer, Long> lines = lines();
+        int linesHit = 0, branchesHit = 0, branchCount = 0;
+        for(long count: lines.values()) if(count > 0) linesHit++;
+        List<Integer> loops = new ArrayList<>();
+        for(int id = 0; id < sites.size(); id++){
+            Site site = sites.get(id);
+            if(site.kind != BRANCH && site.kind != LOOP) continue;
+            branchCount++;
+            if(hits[id] > 0) branchesHit++;
+            //a loop's first outcome counts its iterations
+            if(site.kind == LOOP && id == site.block && hits[id] > 0) loops.add(id);
+        }
+        out.printf("lines %d/%d, branches %d/%d covered%n", linesHit, lines.size(), branchesHit, branchCount);
+        loops.sort((a, b) -> Long.compare(hits[b], hits[a]));
+        if(loops.isEmpty()) return;
+        out.printf("%-8s %14s%n", "line", "iterations");
+        for(int id: loops.subList(0, Math.min(10, loops.size()))){
+            out.printf("%-8d %14d%n", sites.get(id).ln, hits[id]);
+        }
+    }
+    //a line counts as often as the statement on it that ran the most
+    private TreeMap<Integer, Long> lines(){
+        TreeMap<Integer, Long> lines = new TreeMap<>();
+        for(int id = 0; id < sites.size(); id++){
+            Site site = sites.get(id);
+            if(site.kind == STATEMENT) lines.merge(site.ln, hits[id], Math::max);
+        }
+        return lines;
+    }
+
+    //writes the counts in the LCOV tracefile format genhtml and most coverage tools read
+    void writeLcov(Path source, Path path) throws IOException{
+        try(Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)){
+            out.write("TN:\nSF:" + source.toAbsolutePath() + "\n");
+            int functions = 0, functionsHit = 0;
+            for(int id = 0; id < sites.size(); id++){
+                Site site = sites.get(id);
+                if(site.kind != FUNCTION) continue;
+                out.write("FN:" + site.ln + "," + site.name + "\nFNDA:" + hits[id] + "," + site.name + "\n");
+                functions++;
+                if(hits[id] > 0) functionsHit++;
+            }
+            out.write("FNF:" + functions + "\nFNH:" + functionsHit + "\n");
+            int branches = 0, branchesHit = 0;
+            for(int id = 0; id < sites.size(); id++){
+                Site site = sites.get(id);
+                if(site.kind != BRANCH && site.kind != LOOP) continue;
+                //outcomes of a branch that never ran are written as '-' rather than 0
+                boolean ran = hits[site.block] + hits[site.block + 1] > 0;
+                out.write("BRDA:" + site.ln + "," + site.block + "," + (id - site.block) + "," + (ran ? hits[id] : "-") + "\n");
+                branches++;
+                if(hits[id] > 0) branchesHit++;
+            }
+            out.write("BRF:" + branches + "\nBRH:" + branchesHit + "\n");
+            TreeMap<Integer, Long> lines = lines();
+            int linesHit = 0;
+            for(int ln: lines.keySet()){
+                long count = lines.get(ln);
+                out.write("DA:" + ln + "," + count + "\n");
+                if(count > 0) linesHit++;
+            }
+            out.write("LF:" + lines.size() + "\nLH:" + linesHit + "\nend_of_record\n");
+        }
+    }
+}
@@ -1,44 +1,34 @@
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 
+//the globals, indexed by the interned name (see Symbols). Locals live in frames on the interpreter's
+//value stack instead
 public class Environment {
-    public final Environment enclosing; 
-    private final Map<String, Object> values = new HashMap<>();
-    Environment(){
-        enclosing = null;
-    }
-    Environment(Environment enclosing){
-        this.enclosing = enclosing;
+    private GlobalCell[] values = new GlobalCell[64];
+    //the cell for a name, made undefined on first use so sites can bind to it before the definition runs
+    GlobalCell cell(int symbol){
+        if(symbol >= values.length) values = Arrays.copyOf(values, Math.max(values.length * 2, symbol + 1));
+        GlobalCell cell = values[symbol];
+        if(cell == null){
+            cell = new GlobalCell(this, Symbols.name(symbol));
+            values[symbol] = cell;
+        }
+        return cell;
     }
-    void define(String name, Object val){
-        values.put(name, val);
+    void define(int symbol, Object val){
+        GlobalCell cell = cell(symbol);
+        cell.value = val;
+        cell.defined = true;
     }
-    Object get(Token name){
-        if(values.containsKey(name.lexeme)) return values.get(name.lexeme);
-        if(enclosing != null) return enclosing.get(name);
+    Object get(GlobalCell cell, Token name){
+        if(cell.defined) return cell.value;
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
-    Object getAt(int dist, String name){
-        return ancestor(dist).values.get(name);
-    }
-    void assign(Token name, Object val){
+    void assign(GlobalCell cell, Token name, Object val){
         //only allow assignment to defined variables
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, val);
-            return;
-        }
-        if(enclosing != null){
-            enclosing.assign(name, val);
+        if(cell.defined){
+            cell.value = val;
             return;
         }
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
-    void assignAt(int dist, Token name, Object val){
-        ancestor(dist).values.put(name.lexeme, val);
-    }
-    private Environment ancestor(int dist){
-        Environment env = this;
-        for(int i = 0; i < dist; i++) env = env.enclosing;
-        return env;
-    }
 }
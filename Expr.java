@@ -22,6 +22,9 @@ abstract class Expr{
 		}
 		final Token name;
 		final Expr value;
+		byte access = VariableAccess.GLOBAL;
+		int slot;
+		GlobalCell global;
 	}
 	static class Binary extends Expr{
 		Binary(Expr l, Token op, Expr r){
@@ -36,6 +39,7 @@ abstract class Expr{
 		final Expr l;
 		final Token op;
 		final Expr r;
+		byte node = BinaryNode.UNINITIALIZED;
 	}
 	static class Grouping extends Expr{
 		Grouping(Expr expr){
@@ -70,6 +74,7 @@ abstract class Expr{
 		final Expr l;
 		final Token op;
 		final Expr r;
+		int id;
 	}
 	static class Unary extends Expr{
 		Unary(Token op, Expr r){
@@ -82,6 +87,7 @@ abstract class Expr{
 		}
 		final Token op;
 		final Expr r;
+		byte node = UnaryNode.UNINITIALIZED;
 	}
 	static class Variable extends Expr{
 		Variable(Token name){
@@ -92,6 +98,9 @@ abstract class Expr{
 			return visitor.visitVariableExpr(this);
 		}
 		final Token name;
+		byte access = VariableAccess.GLOBAL;
+		int slot;
+		GlobalCell global;
 	}
 	static class Call extends Expr{
 		Call(Expr callee, Token paren, List<Expr> arguments){
@@ -0,0 +1,265 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//a parsed program stored as parallel arrays instead of a tree of objects, for large scripts (--compact).
+//A node is an index: its kind, its operator, up to three operands and its line. Operands are child
+//nodes, interned names (see Symbols), constant pool indexes or offsets of runs in the list pool.
+//Tokens aren't kept, they are made again from the symbol, type and line when a statement is decoded.
+//Top-level statements decode one at a time, the tree-walker and resolver only see those trees.
+final class FlatAst {
+    private static final byte ASSIGN = 0, BINARY = 1, GROUPING = 2, LITERAL = 3, LOGICAL = 4, UNARY = 5, VARIABLE = 6,
+        CALL = 7, BLOCK = 8, EXPRESSION = 9, FUNCTION = 10, IF = 11, PRINT = 12, RETURN = 13, VAR = 14, WHILE = 15,
+        BREAK = 16, CONTINUE = 17;
+    private static final TokenType[] TYPES = TokenType.values();
+    //operands per kind:
+    //  ASSIGN name, value               BINARY, LOGICAL l, r           UNARY r
+    //  VARIABLE name                    GROUPING expr                  LITERAL constant
+    //  CALL callee, arguments           BLOCK statements               EXPRESSION, PRINT expr
+    //  FUNCTION name, params, body      IF condition, then, else       RETURN value, keyword line
+    //  VAR name, initializer, name line WHILE condition, body, increment
+    //  BREAK, CONTINUE keyword line
+    //where params is a run of the name's line, then a line and a name per parameter. -1 is a missing child
+    private byte[] kind = new byte[1024], op = new byte[1024];
+    private int[] a = new int[1024], b = new int[1024], c = new int[1024], line = new int[1024];
+    private int count = 0;
+    //each run is its length followed by its elements
+    private int[] lists = new int[1024];
+    private int listsSize = 0;
+    private Object[] constants = new Object[64];
+    private int constantCount = 0;
+    private Map<Object, Integer> constantIndex = new HashMap<>();
+    private int[] statements = new int[64];
+    private int statementCount = 0;
+    private final Encoder encoder = new Encoder();
+
+    //a top-level statement, null for one that failed to parse
+    void add(Stmt stmt){
+        if(statementCount == statements.length) statements = Arrays.copyOf(statements, statementCount * 2);
+        statements[statementCount++] = stmt == null ? -1 : stmt.accept(encoder);
+    }
+    //drops the room left for growth and the tables only needed while encoding
+    void trim(){
+        kind = Arrays.copyOf(kind, count);
+        op = Arrays.copyOf(op, count);
+        a = Arrays.copyOf(a, count);
+        b = Arrays.copyOf(b, count);
+        c = Arrays.copyOf(c, count);
+        line = Arrays.copyOf(line, count);
+        lists = Arrays.copyOf(lists, listsSize);
+        constants = Arrays.copyOf(constants, constantCount);
+        constantIndex = null;
+        statements = Arrays.copyOf(statements, statementCount);
+    }
+    int size(){
+        return statementCount;
+    }
+    //nodes in the ith top-level statement of a program that parsed: each is encoded right after the last
+    int nodes(int i){
+        return statements[i] - (i == 0 ? -1 : statements[i-1]);
+    }
+    //the ith top-level statement as a fresh tree, in a list as the resolver and interpreter take it
+    List<Stmt> decode(int i){
+        List<Stmt> result = new ArrayList<>(1);
+        result.add(stmt(statements[i]));
+        return result;
+    }
+
+    private int node(byte nodeKind, int nodeA, int nodeB, int nodeC, int ln){
+        if(count == kind.length){
+            int capacity = count * 2;
+            kind = Arrays.copyOf(kind, capacity);
+            op = Arrays.copyOf(op, capacity);
+            a = Arrays.copyOf(a, capacity);
+            b = Arrays.copyOf(b, capacity);
+            c = Arrays.copyOf(c, capacity);
+            line = Arrays.copyOf(line, capacity);
+        }
+        kind[count] = nodeKind;
+        a[count] = nodeA;
+        b[count] = nodeB;
+        c[count] = nodeC;
+        line[count] = ln;
+        return count++;
+    }
+    private int operator(byte nodeKind, Token token, int nodeA, int nodeB){
+        int node = node(nodeKind, nodeA, nodeB, -1, token.ln);
+        op[node] = (byte)token.type.ordinal();
+        return node;
+    }
+    private int list(int[] elements, int size){
+        if(listsSize + size + 1 > lists.length) lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listsSize + size + 1));
+        int offset = listsSize;
+        lists[listsSize++] = size;
+        System.arraycopy(elements, 0, lists, listsSize, size);
+        listsSize += size;
+        return offset;
+    }
+    private int constant(Object val){
+        Integer index = constantIndex.get(val);
+        if(index != null) return index;
+        if(constantCount == constants.length) constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = val;
+        constantIndex.put(val, constantCount);
+        return constantCount++;
+    }
+
+    //children are encoded before their parents, so a node only ever points back
+    private class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer>{
+        private int encode(Expr expr){
+            return expr == null ? -1 : expr.accept(this);
+        }
+        private int encode(Stmt stmt){
+            return stmt == null ? -1 : stmt.accept(this);
+        }
+        private int statements(List<Stmt> stmts){
+            int[] nodes = new int[stmts.size()];
+            for(int i = 0; i < nodes.length; i++) nodes[i] = encode(stmts.get(i));
+            return list(nodes, nodes.length);
+        }
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr){
+            return node(ASSIGN, expr.name.symbol, encode(expr.value), -1, expr.name.ln);
+        }
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr){
+            return operator(BINARY, expr.op, encode(expr.l), encode(expr.r));
+        }
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr){
+            return node(GROUPING, encode(expr.expr), -1, -1, 0);
+        }
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr){
+            return node(LITERAL, constant(expr.val), -1, -1, 0);
+        }
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr){
+            return operator(LOGICAL, expr.op, encode(expr.l), encode(expr.r));
+        }
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr){
+            return operator(UNARY, expr.op, encode(expr.r), -1);
+        }
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr){
+            return node(VARIABLE, expr.name.symbol, -1, -1, expr.name.ln);
+        }
+        @Override
+        public Integer visitCallExpr(Expr.Call expr){
+            int callee = encode(expr.callee);
+            int[] arguments = new int[expr.arguments.size()];
+            for(int i = 0; i < arguments.length; i++) arguments[i] = encode(expr.arguments.get(i));
+            return node(CALL, callee, list(arguments, arguments.length), -1, expr.paren.ln);
+        }
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt){
+            return node(BLOCK, statements(stmt.statements), -1, -1, stmt.ln);
+        }
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt){
+            return node(EXPRESSION, encode(stmt.expr), -1, -1, stmt.ln);
+        }
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt){
+            int[] params = new int[1 + 2 * stmt.params.size()];
+            params[0] = stmt.name.ln;
+            for(int i = 0; i < stmt.params.size(); i++){
+                params[1 + 2 * i] = stmt.params.get(i).ln;
+                params[2 + 2 * i] = stmt.params.get(i).symbol;
+            }
+            int paramList = list(params, params.length);
+            return node(FUNCTION, stmt.name.symbol, paramList, statements(stmt.body), stmt.ln);
+        }
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt){
+            return node(IF, encode(stmt.condition), encode(stmt.thenBranch), encode(stmt.elseBranch), stmt.ln);
+        }
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt){
+            return node(PRINT, encode(stmt.expr), -1, -1, stmt.ln);
+        }
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt){
+            return node(RETURN, encode(stmt.value), stmt.keyword.ln, -1, stmt.ln);
+        }
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt){
+            return node(VAR, stmt.name.symbol, encode(stmt.initializer), stmt.name.ln, stmt.ln);
+        }
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt){
+            return node(WHILE, encode(stmt.condition), encode(stmt.body), encode(stmt.increment), stmt.ln);
+        }
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt){
+            return node(BREAK, stmt.name.ln, -1, -1, stmt.ln);
+        }
+        @Override
+        public Integer visitContinueStmt(Stmt.Continue stmt){
+            return node(CONTINUE, stmt.keyword.ln, -1, -1, stmt.ln);
+        }
+    }
+
+    private Expr expr(int node){
+        if(node == -1) return null;
+        switch(kind[node]){
+            case ASSIGN: return new Expr.Assign(name(a[node], line[node]), expr(b[node]));
+            case BINARY: return new Expr.Binary(expr(a[node]), operator(node), expr(b[node]));
+            case GROUPING: return new Expr.Grouping(expr(a[node]));
+            case LITERAL: return new Expr.Literal(constants[a[node]]);
+            case LOGICAL: return new Expr.Logical(expr(a[node]), operator(node), expr(b[node]));
+            case UNARY: return new Expr.Unary(operator(node), expr(a[node]));
+            case VARIABLE: return new Expr.Variable(name(a[node], line[node]));
+            case CALL:
+                int offset = b[node], size = lists[offset];
+                List<Expr> arguments = new ArrayList<>(size);
+                for(int i = 1; i <= size; i++) arguments.add(expr(lists[offset + i]));
+                Token paren = new Token(TokenType.RIGHT_PAREN, TokenType.RIGHT_PAREN.lexeme, null, line[node]);
+                return new Expr.Call(expr(a[node]), paren, arguments);
+            default: throw new IllegalStateException("not an expression: " + kind[node]);
+        }
+    }
+    private Stmt stmt(int node){
+        if(node == -1) return null;
+        Stmt stmt;
+        switch(kind[node]){
+            case BLOCK: stmt = new Stmt.Block(statements(a[node])); break;
+            case EXPRESSION: stmt = new Stmt.Expression(expr(a[node])); break;
+            case FUNCTION:
+                int offset = b[node], size = lists[offset] / 2;
+                List<Token> params = new ArrayList<>(size);
+                for(int i = 0; i < size; i++) params.add(name(lists[offset + 3 + 2 * i], lists[offset + 2 + 2 * i]));
+                stmt = new Stmt.Function(name(a[node], lists[offset + 1]), params, statements(c[node]));
+                break;
+            case IF: stmt = new Stmt.If(expr(a[node]), stmt(b[node]), stmt(c[node])); break;
+            case PRINT: stmt = new Stmt.Print(expr(a[node])); break;
+            case RETURN: stmt = new Stmt.Return(keyword(TokenType.RETURN, b[node]), expr(a[node])); break;
+            case VAR: stmt = new Stmt.Var(name(a[node], c[node]), expr(b[node])); break;
+            case WHILE: stmt = new Stmt.While(expr(a[node]), stmt(b[node]), expr(c[node])); break;
+            case BREAK: stmt = new Stmt.Break(keyword(TokenType.BREAK, a[node])); break;
+            case CONTINUE: stmt = new Stmt.Continue(keyword(TokenType.CONTINUE, a[node])); break;
+            default: throw new IllegalStateException("not a statement: " + kind[node]);
+        }
+        stmt.ln = line[node];
+        return stmt;
+    }
+    private List<Stmt> statements(int offset){
+        int size = lists[offset];
+        List<Stmt> result = new ArrayList<>(size);
+        for(int i = 1; i <= size; i++) result.add(stmt(lists[offset + i]));
+        return result;
+    }
+    private static Token name(int symbol, int ln){
+        return new Token(TokenType.IDENTIFIER, Symbols.name(symbol), null, ln, symbol);
+    }
+    private static Token keyword(TokenType type, int ln){
+        return new Token(type, type.lexeme, null, ln);
+    }
+    private Token operator(int node){
+        TokenType type = TYPES[op[node]];
+        return new Token(type, type.lexeme, null, line[node]);
+    }
+}
@@ -0,0 +1,13 @@
+//a global variable. Use sites look their name up once and keep the cell on the node, so later reads
+//and writes are a field access. Redefining a global stores into the same cell, which cached sites see.
+final class GlobalCell {
+    //the globals the cell belongs to, one resolved program can be run by several interpreters
+    final Environment owner;
+    final String name;
+    Object value;
+    boolean defined = false;
+    GlobalCell(Environment owner, String name){
+        this.owner = owner;
+        this.name = name;
+    }
+}
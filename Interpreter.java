@@ -1,34 +1,75 @@
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    //stores static resolution results: number of environment jumps  
-    private final Map<Expr, Integer> locals = new HashMap<>();  
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    //thrown by evalDouble when a subexpression specialized to numbers produced something else
+    private static class UnexpectedResult extends RuntimeException{
+        final Object value;
+        UnexpectedResult(Object value){
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
     final Environment globals = new Environment();
-    private Environment env = globals;
+    //locals live in frames on this stack: the running function's starts at fp, the next one goes at sp
+    Object[] stack = new Object[256];
+    int fp = 0, sp = 0;
+    //cells of the enclosing functions' locals the running function uses
+    Cell[] upvalues = null;
+    //value of the return statement that last completed with Completion.RETURN
+    private Object returnValue = null;
+    //call left for LoxFunction.call to make after a statement completed with Completion.TAIL_CALL
+    LoxFunction tailCallee = null;
+    Object[] tailArguments = null;
+    //functions called and loops iterated this often are compiled to JVM bytecode, where they qualify
+    static final int HOT_CALLS = 1000, HOT_ITERATIONS = 10000;
+    private final JitCompiler jit = new JitCompiler();
+    //with --jit functions are compiled when declared rather than once they get hot
+    private boolean eagerJit = false;
+    //records calls and the current line when --profile is on
+    Profiler profiler = null;
+    //statement, branch and call counts indexed by Coverage's node ids when --coverage is on
+    long[] hits = null;
+    //counts published by Metrics, kept here until flushed
+    final Metrics.Local metrics = new Metrics.Local();
     Interpreter(){
-        globals.define("clock", new LoxCallable() {
+        globals.define(Symbols.intern("clock").id, new LoxCallable() {
             @Override
             public int arity(){
                 return 0;
             }
             @Override
-            public Object call(Interpreter interpreter, List<Object> arguments){
+            public Object call0(Interpreter interpreter){
                 return (double)System.currentTimeMillis()/1000.0;
             }
             @Override
+            public Object call(Interpreter interpreter, Object[] arguments){
+                return call0(interpreter);
+            }
+            @Override
             public String toString(){
                 return "<native function>";
             }
         });
     }
+    void enableJit(){
+        eagerJit = true;
+    }
+    void enableCoverage(long[] hits){
+        this.hits = hits;
+        jit.coverage = true;
+    }
+    void enableProfiler(Profiler profiler){
+        this.profiler = profiler;
+        jit.profiling = true;
+    }
     public void interpret(List<Stmt> statements){
         try{
             for(Stmt stmt: statements) exec(stmt);
         } catch(RuntimeError e){
             Lox.runtimeError(e);
+        } finally{
+            metrics.flush();
         }
     }
     //implementing Expr visitor
@@ -40,11 +81,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitLogicalExpr(Expr.Logical expr){
         Object l = eval(expr.l);
         //short-circuiting 
-        if(expr.op.type == TokenType.OR){
-            if(isTruthy(l)) return l;
-        } else{
-            if(!isTruthy(l)) return l;
-        }
+        boolean shortCircuit = expr.op.type == TokenType.OR ? isTruthy(l) : !isTruthy(l);
+        if(hits != null) hits[shortCircuit ? expr.id : expr.id + 1]++;
+        if(shortCircuit) return l;
         return eval(expr.r);
     }
     @Override
@@ -53,106 +92,187 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
     @Override
     public Object visitUnaryExpr(Expr.Unary expr){
-        Object r = eval(expr.r);
-        switch(expr.op.type){
-            case BANG:
-                return !isTruthy(r);
-            case MINUS:
-                checkNumberOperand(expr.op, r);
-                return -(double)r;
+        if(expr.node == UnaryNode.NUMBER_NEGATE){
+            try{
+                return evalDouble(expr);
+            } catch(UnexpectedResult e){
+                return e.value;
+            }
         }
-        return null;
+        Object r = eval(expr.r);
+        return UnaryNode.execute(expr, r);
     }
     @Override
     public Object visitBinaryExpr(Expr.Binary expr){
-        Object l = eval(expr.l), r = eval(expr.r);
-        switch(expr.op.type){
-            case GREATER:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l > (double)r;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l >= (double)r;    
-            case LESS:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l < (double)r;   
-            case LESS_EQUAL:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l <= (double)r;        
-            case MINUS:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l - (double)r;
-            case PLUS:
-                if(l instanceof Double && r instanceof Double) return (double)l + (double)r;
-                if(l instanceof String && r instanceof String) return (String)l + (String)r;
-                throw new RuntimeError(expr.op, "Both operands must be two numbers or two strings.");
-            case SLASH:
-                checkNumberOperands(expr.op, l, r);
-                if((double)r == 0) throw new RuntimeError(expr.op, "Cannot divide by Zero.");
-                return (double)l / (double)r;
-            case STAR:
-                checkNumberOperands(expr.op, l, r);
-                return (double)l * (double)r;
-            case BANG_EQUAL:
-                return !isEqual(l, r);
-            case EQUAL_EQUAL:
-                return isEqual(l, r);
-
+        //number-specialized nodes keep their operands unboxed, only the result is boxed
+        if(BinaryNode.isArithmetic(expr.node)){
+            try{
+                return evalDouble(expr);
+            } catch(UnexpectedResult e){
+                return e.value;
+            }
         }
-        return null;
+        if(BinaryNode.isComparison(expr.node)) return compareDoubles(expr);
+        Object l = eval(expr.l), r = eval(expr.r);
+        //the node specializes itself on the operand types it sees
+        return BinaryNode.execute(expr, l, r);
     }
     @Override
     public Object visitVariableExpr(Expr.Variable expr){
-        //return env.get(expr.name);
-        return lookupVariable(expr.name, expr);
+        switch(expr.access){
+            case VariableAccess.LOCAL: return stack[fp + expr.slot];
+            case VariableAccess.CELL: return ((Cell)stack[fp + expr.slot]).value;
+            case VariableAccess.UPVALUE: return upvalues[expr.slot].value;
+        }
+        return globals.get(global(expr), expr.name);
     }
     @Override
     public Object visitAssignExpr(Expr.Assign expr){
         Object val = eval(expr.value);
-        // env.assign(expr.name, val);
-        Integer dist = locals.get(expr);
-        if(dist != null) env.assignAt(dist, expr.name, val);
-        else globals.assign(expr.name, val);
-         return val;
+        switch(expr.access){
+            case VariableAccess.LOCAL: stack[fp + expr.slot] = val; break;
+            case VariableAccess.CELL: ((Cell)stack[fp + expr.slot]).value = val; break;
+            case VariableAccess.UPVALUE: upvalues[expr.slot].value = val; break;
+            default: globals.assign(global(expr), expr.name, val);
+        }
+        return val;
+    }
+    //a global site looks its cell up once and keeps it, unless it was last run by another interpreter
+    GlobalCell global(Expr.Variable expr){
+        GlobalCell cell = expr.global;
+        if(cell == null || cell.owner != globals) cell = expr.global = globals.cell(expr.name.symbol);
+        return cell;
+    }
+    GlobalCell global(Expr.Assign expr){
+        GlobalCell cell = expr.global;
+        if(cell == null || cell.owner != globals) cell = expr.global = globals.cell(expr.name.symbol);
+        return cell;
     }
     @Override
     public Object visitCallExpr(Expr.Call expr){
+        LoxCallable fn = callee(expr);
+        if(profiler != null) return profiledCall(fn, arguments(expr, fn), expr.paren.ln);
+        List<Expr> args = expr.arguments;
+        //up to three arguments go to the callee as they are, without collecting them in an array
+        switch(args.size()){
+            case 0:
+                checkArity(expr, fn, 0);
+                return fn.call0(this);
+            case 1: {
+                Object a = eval(args.get(0));
+                checkArity(expr, fn, 1);
+                return fn.call1(this, a);
+            }
+            case 2: {
+                Object a = eval(args.get(0)), b = eval(args.get(1));
+                checkArity(expr, fn, 2);
+                return fn.call2(this, a, b);
+            }
+            case 3: {
+                Object a = eval(args.get(0)), b = eval(args.get(1)), c = eval(args.get(2));
+                checkArity(expr, fn, 3);
+                return fn.call3(this, a, b, c);
+            }
+        }
+        return fn.call(this, arguments(expr, fn));
+    }
+    //an error out of a call ends the script, and the profiler drops the calls it left on its stack
+    Object profiledCall(LoxCallable fn, Object[] args, int ln){
+        profiler.enter(fn, ln);
+        Object result = fn.call(this, args);
+        profiler.exit();
+        return result;
+    }
+    private LoxCallable callee(Expr.Call expr){
         Object callee = eval(expr.callee);
         if(!(callee instanceof LoxCallable)){
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
-        LoxCallable fn = (LoxCallable)callee;
-        List<Object> args = new ArrayList<>();
-        for(Expr arg: expr.arguments) args.add(eval(arg));
-        if(args.size() != fn.arity()){
+        return (LoxCallable)callee;
+    }
+    private Object[] arguments(Expr.Call expr, LoxCallable fn){
+        Object[] args = new Object[expr.arguments.size()];
+        for(int i = 0; i < args.length; i++) args[i] = eval(expr.arguments.get(i));
+        checkArity(expr, fn, args.length);
+        return args;
+    }
+    private static void checkArity(Expr.Call expr, LoxCallable fn, int argc){
+        if(argc != fn.arity()){
             throw new RuntimeError(expr.paren, "Expected " + fn.arity() + " arguments but got " +
-                args.size() + ".");
+                argc + ".");
         }
-        return fn.call(this, args);
     }
     //util
     private Object eval(Expr expr){
         return expr.accept(this); 
     }
-    private boolean isTruthy(Object obj){
+    //evaluates an expression expected to produce a number without boxing intermediate results.
+    //when a guard fails the node falls back to its generic state and the boxed value is thrown.
+    private double evalDouble(Expr expr){
+        if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary)expr;
+            if(BinaryNode.isArithmetic(binary.node)){
+                double l;
+                try{
+                    l = evalDouble(binary.l);
+                } catch(UnexpectedResult e){
+                    return expectDouble(BinaryNode.execute(binary, e.value, eval(binary.r)));
+                }
+                double r;
+                try{
+                    r = evalDouble(binary.r);
+                } catch(UnexpectedResult e){
+                    return expectDouble(BinaryNode.execute(binary, l, e.value));
+                }
+                //evaluating the operands can run this same node with other types and make it generic
+                if(!BinaryNode.isArithmetic(binary.node)) return expectDouble(BinaryNode.execute(binary, l, r));
+                return BinaryNode.arithmetic(binary, l, r);
+            }
+        } else if(expr instanceof Expr.Unary){
+            Expr.Unary unary = (Expr.Unary)expr;
+            if(unary.node == UnaryNode.NUMBER_NEGATE){
+                try{
+                    return -evalDouble(unary.r);
+                } catch(UnexpectedResult e){
+                    return expectDouble(UnaryNode.execute(unary, e.value));
+                }
+            }
+        } else if(expr instanceof Expr.Grouping){
+            return evalDouble(((Expr.Grouping)expr).expr);
+        }
+        return expectDouble(eval(expr));
+    }
+    private double expectDouble(Object val){
+        if(val instanceof Double) return (double)val;
+        throw new UnexpectedResult(val);
+    }
+    private Object compareDoubles(Expr.Binary expr){
+        double l;
+        try{
+            l = evalDouble(expr.l);
+        } catch(UnexpectedResult e){
+            return BinaryNode.execute(expr, e.value, eval(expr.r));
+        }
+        double r;
+        try{
+            r = evalDouble(expr.r);
+        } catch(UnexpectedResult e){
+            return BinaryNode.execute(expr, l, e.value);
+        }
+        if(!BinaryNode.isComparison(expr.node)) return BinaryNode.execute(expr, l, r);
+        return BinaryNode.comparison(expr, l, r);
+    }
+    static boolean isTruthy(Object obj){
         if(obj == null) return false;
         if(obj instanceof Boolean) return (boolean)obj;
         return true;
     }
-    private boolean isEqual(Object a, Object b){
+    static boolean isEqual(Object a, Object b){
         if(a == null && b == null) return true;
         if(a == null) return false;
         return a.equals(b);
     }
-    private void checkNumberOperand(Token operator, Object operand){
-        if(operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
-    }
-    private void checkNumberOperands(Token op, Object l, Object r){
-        if(l instanceof Double && r instanceof Double) return;
-        throw new RuntimeError(op, "Operands must be numbers.");
-    }
-    private String stringify(Object obj){
+    static String stringify(Object obj){
         if(obj == null) return "nil";
         if(obj instanceof Double){
             String txt = obj.toString();
@@ -161,89 +281,220 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
         return obj.toString();
     }
-    private void exec(Stmt stmt){
-        stmt.accept(this);
+    private Completion exec(Stmt stmt){
+        metrics.statement();
+        if(hits != null) hits[stmt.id]++;
+        if(profiler != null) profiler.line = stmt.ln;
+        return stmt.accept(this);
     }
-    void execBlock(List<Stmt> statements, Environment env){
-        Environment prev = this.env;
-        try{
-            this.env = env;
-            for(Stmt stmt: statements) exec(stmt);
-        } finally{
-            this.env = prev;
+    Completion execBlock(List<Stmt> statements){
+        for(Stmt stmt: statements){
+            Completion completion = exec(stmt);
+            if(completion != Completion.NORMAL) return completion;
         }
+        return Completion.NORMAL;
+    }
+    //reserves a frame of size slots and returns where it starts
+    int pushFrame(int size){
+        int base = sp;
+        sp += size;
+        if(sp > stack.length) stack = Arrays.copyOf(stack, Math.max(sp, stack.length * 2));
+        metrics.environment();
+        return base;
+    }
+    //releases the frame starting at base and any above it, clearing them so they don't keep values alive
+    void popFrame(int base){
+        Arrays.fill(stack, base, sp, null);
+        sp = base;
     }
-    private Object lookupVariable(Token name, Expr expr){
-        Integer dist = locals.get(expr);
-        if(dist != null) return env.getAt(dist, name.lexeme);
-        else return globals.get(name);
+    //hands the returned value to the caller, not keeping it reachable from here
+    Object takeReturnValue(){
+        Object val = returnValue;
+        returnValue = null;
+        return val;
     }
     //implementing Stmt visitor
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt){
+    public Completion visitExpressionStmt(Stmt.Expression stmt){
         eval(stmt.expr);
-        return null;
+        return Completion.NORMAL;
     }
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt){
+    public Completion visitPrintStmt(Stmt.Print stmt){
         Object val = eval(stmt.expr);
         System.out.println(stringify(val));
-        return null;
+        return Completion.NORMAL;
     }
     @Override
-    public Void visitVarStmt(Stmt.Var stmt){
+    public Completion visitVarStmt(Stmt.Var stmt){
         Object val = null;
         if(stmt.initializer != null) val = eval(stmt.initializer);
-        env.define(stmt.name.lexeme, val);
-        return null;
+        //a captured local gets a new cell each time its declaration runs, as closures made in a loop expect
+        if(stmt.slot == -1) globals.define(stmt.name.symbol, val);
+        else stack[fp + stmt.slot] = stmt.captured ? new Cell(val) : val;
+        return Completion.NORMAL;
     }
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt){
-        execBlock(stmt.statements, new Environment(env));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt){
+        if(stmt.frameSize == 0) return execBlock(stmt.statements);
+        //a top-level block's locals get a frame of their own
+        int base = pushFrame(stmt.frameSize), callerFp = fp;
+        fp = base;
+        try{
+            return execBlock(stmt.statements);
+        } finally{
+            fp = callerFp;
+            popFrame(base);
+        }
     }
     @Override 
-    public Void visitIfStmt(Stmt.If stmt){
-        if(isTruthy(eval(stmt.condition))) exec(stmt.thenBranch);
-        else if(stmt.elseBranch != null) exec(stmt.elseBranch);
-        return null;
+    public Completion visitIfStmt(Stmt.If stmt){
+        if(isTruthy(eval(stmt.condition))){
+            if(hits != null) hits[stmt.id + 1]++;
+            return exec(stmt.thenBranch);
+        }
+        if(hits != null) hits[stmt.id + 2]++;
+        if(stmt.elseBranch != null) return exec(stmt.elseBranch);
+        return Completion.NORMAL;
     }
     @Override
-    public Void visitWhileStmt(Stmt.While stmt){
+    public Completion visitWhileStmt(Stmt.While stmt){
+        if(stmt.frameSize == 0) return loop(stmt);
+        int base = pushFrame(stmt.frameSize), callerFp = fp;
+        fp = base;
+        try{
+            return loop(stmt);
+        } finally{
+            fp = callerFp;
+            popFrame(base);
+        }
+    }
+    private Completion loop(Stmt.While stmt){
+        if(stmt.compiled != null) return compiledLoop(stmt);
+        if(stmt.counter != -1){
+            Completion completion = countingLoop(stmt);
+            if(completion != null) return completion;
+        }
         while(isTruthy(eval(stmt.condition))){
-            try{
-                exec(stmt.body);
-            }
-            catch(Break b){
-                break;
-            }
-            catch(Continue c){
-                continue;
+            if(hits != null) hits[stmt.id + 1]++;
+            Completion completion = exec(stmt.body);
+            if(completion == Completion.BREAK) break;
+            if(completion == Completion.RETURN || completion == Completion.TAIL_CALL) return completion;
+            //a for loop's increment also runs after continue
+            if(stmt.increment != null) eval(stmt.increment);
+            //on-stack replacement: a loop that got hot carries on in compiled code from its next iteration
+            if(++stmt.iterations == HOT_ITERATIONS && tierUp(stmt)) return compiledLoop(stmt);
+        }
+        //left by the condition or a break
+        if(hits != null) hits[stmt.id + 2]++;
+        return Completion.NORMAL;
+    }
+    //a counting loop keeps its counter in a double, only boxing it into the frame for a body that
+    //reads it and when the loop is left. Null, before running anything, if the counter or bound isn't a number
+    private Completion countingLoop(Stmt.While stmt){
+        Expr.Binary condition = (Expr.Binary)stmt.condition;
+        Object start = stack[fp + stmt.counter], limit = eval(condition.r);
+        if(!(start instanceof Double) || !(limit instanceof Double)) return null;
+        double i = (double)start, bound = (double)limit, step = stmt.step;
+        TokenType op = condition.op.type;
+        while(compare(op, i, bound)){
+            if(hits != null) hits[stmt.id + 1]++;
+            if(stmt.counterRead) stack[fp + stmt.counter] = i;
+            Completion completion = exec(stmt.body);
+            if(completion == Completion.BREAK) break;
+            if(completion == Completion.RETURN || completion == Completion.TAIL_CALL) return completion;
+            i += step;
+            if(++stmt.iterations == HOT_ITERATIONS && tierUp(stmt)){
+                stack[fp + stmt.counter] = i;
+                return compiledLoop(stmt);
             }
         }
-        return null;
+        stack[fp + stmt.counter] = i;
+        if(hits != null) hits[stmt.id + 2]++;
+        return Completion.NORMAL;
+    }
+    private static boolean compare(TokenType op, double l, double r){
+        switch(op){
+            case GREATER: return l > r;
+            case GREATER_EQUAL: return l >= r;
+            case LESS: return l < r;
+            default: return l <= r;
+        }
+    }
+    //runs the loop's compiled code on a copy of the current frame
+    private Completion compiledLoop(Stmt.While stmt){
+        Object[] frame = Arrays.copyOfRange(stack, fp, sp);
+        Object result = stmt.compiled.invoke(this, frame);
+        if(result == CompiledFunction.LOOP_EXIT){
+            System.arraycopy(frame, 0, stack, fp, frame.length);
+            return Completion.NORMAL;
+        }
+        if(result == CompiledFunction.TAIL_CALL) return Completion.TAIL_CALL;
+        returnValue = result;
+        return Completion.RETURN;
+    }
+    //code that doesn't qualify is only tried once
+    void tierUp(Stmt.Function fn){
+        if(fn.jitted) return;
+        fn.jitted = true;
+        fn.compiled = jit.compile(fn);
+    }
+    private boolean tierUp(Stmt.While stmt){
+        if(stmt.jitted) return false;
+        stmt.jitted = true;
+        //the loop runs in the frame on top of the stack
+        stmt.compiled = jit.compile(stmt, sp - fp);
+        return stmt.compiled != null;
     }
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt){
-        LoxFunction fn = new LoxFunction(stmt, env);
-        env.define(stmt.name.lexeme, fn);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt){
+        if(eagerJit) tierUp(stmt);
+        if(stmt.slot == -1) globals.define(stmt.name.symbol, new LoxFunction(stmt, captures(stmt)));
+        else if(stmt.captured){
+            //the cell goes in first so a function that calls itself can capture it
+            Cell cell = new Cell(null);
+            stack[fp + stmt.slot] = cell;
+            cell.value = new LoxFunction(stmt, captures(stmt));
+        }
+        else stack[fp + stmt.slot] = new LoxFunction(stmt, captures(stmt));
+        return Completion.NORMAL;
+    }
+    //the cells a new closure keeps, out of the running function's frame and upvalues
+    private Cell[] captures(Stmt.Function fn){
+        Cell[] cells = new Cell[fn.upvalues.length];
+        for(int i = 0; i < cells.length; i++){
+            int source = fn.upvalues[i];
+            cells[i] = source >= 0 ? (Cell)stack[fp + source] : upvalues[-1 - source];
+        }
+        return cells;
     }
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt){
+    public Completion visitReturnStmt(Stmt.Return stmt){
+        if(stmt.tailCall){
+            Expr.Call call = (Expr.Call)stmt.value;
+            LoxCallable fn = callee(call);
+            Object[] args = arguments(call, fn);
+            //the calling LoxFunction.call makes the call once this function's statements have unwound
+            if(fn instanceof LoxFunction){
+                tailCallee = (LoxFunction)fn;
+                tailArguments = args;
+                return Completion.TAIL_CALL;
+            }
+            returnValue = fn.call(this, args);
+            return Completion.RETURN;
+        }
         Object val = null;
         if(stmt.value != null) val = eval(stmt.value);
-        //using this as a control flow construct.
-        throw new Return(val);
+        //unwound by every enclosing statement up to LoxFunction.call
+        returnValue = val;
+        return Completion.RETURN;
     }
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt){
-        throw new Break();
+    public Completion visitBreakStmt(Stmt.Break stmt){
+        return Completion.BREAK;
     }
-    public Void visitContinueStmt(Stmt.Continue stmt){
-        throw new Continue();
-    }
-    void resolve(Expr expr, int depth){
-        locals.put(expr, depth);
+    @Override
+    public Completion visitContinueStmt(Stmt.Continue stmt){
+        return Completion.CONTINUE;
     }
 }
@@ -0,0 +1,896 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//compiles self-contained Lox functions and loops into hidden JVM classes so HotSpot can JIT them.
+//they qualify when they only touch their own frame's locals and globals: no nested functions
+//and no variables captured from an enclosing function.
+class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    //thrown when the function uses something the compiled code can't express
+    private static class Unsupported extends RuntimeException{
+        Unsupported(){
+            super(null, null, false, false);
+        }
+    }
+    private static class Loop{
+        final Loop enclosing;
+        final Assembler.Label start = new Assembler.Label(), next = new Assembler.Label(), end = new Assembler.Label();
+        Loop(Loop enclosing){
+            this.enclosing = enclosing;
+        }
+    }
+    private static final String RUNTIME = JitRuntime.class.getName();
+    private static final String INVOKE_DESC = "(LInterpreter;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String FIXED_INVOKE_DESC =
+        "(LInterpreter;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String FIXED_CALL_DESC =
+        "(LLoxCallable;ILjava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;LInterpreter;LToken;)Ljava/lang/Object;";
+    //functions and calls with up to this many arguments pass them as they are rather than in an array
+    private static final int FIXED_ARGS = 3;
+    //JVM locals 0 and 1 are this and the interpreter. The frame's slots follow, after the argument array
+    //where there is one, then the constants
+    private static final int INTERPRETER_LOCAL = 1, ARGS_LOCAL = 2;
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    //the classes compiled last, by their bytes. Dropping the eldest keeps a long REPL session or benchmark
+    //from growing the cache forever, a dropped class unloads once no compiled function uses it
+    private static final int CACHED_CLASSES = 1024;
+    private static final Map<ByteBuffer, Class<?>> classes = Collections.synchronizedMap(
+        new LinkedHashMap<ByteBuffer, Class<?>>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Class<?>> eldest){
+                return size() > CACHED_CLASSES;
+            }
+        });
+    private Assembler asm;
+    private List<Object> constants;
+    private Map<Object, Integer> constantIndex;
+    private Loop loop;
+    //statements already counted in the metrics, along with one before them
+    private Set<Stmt> counted;
+    //JVM locals in use, the frame's slots and then the doubles of counting loops
+    private int locals;
+    private int firstSlot, constantsLocal;
+    //with --profile each statement stores its line in the profiler, kept in this JVM local
+    boolean profiling = false;
+    private int profilerLocal;
+    //with --coverage the code counts into the interpreter's hits as the tree-walker does, kept in this one
+    boolean coverage = false;
+    private int hitsLocal;
+    //statements run and not yet added to the interpreter's metrics, which they are on returning and
+    //every few thousand iterations of a loop
+    private int metricsLocal, statementsLocal;
+    private static final int PUBLISH_EVERY = 4096;
+
+    //returns null when the function has to stay on the tree-walker
+    CompiledFunction compile(Stmt.Function fn){
+        begin();
+        try{
+            int arity = fn.params.size();
+            if(arity > FIXED_ARGS){
+                frame(ARGS_LOCAL + 1, fn.frameSize);
+                loadSlots(arity);
+            }
+            //the fixed entry point's parameters are the first slots, unused ones included
+            else frame(ARGS_LOCAL, Math.max(fn.frameSize, FIXED_ARGS));
+            compile(fn.body);
+            returning();
+            asm.op(Assembler.ACONST_NULL, 1);
+            asm.op(Assembler.ARETURN, -1);
+            if(arity > FIXED_ARGS){
+                asm.method("invoke", INVOKE_DESC, locals);
+                return define("LoxJit_" + fn.name.lexeme);
+            }
+            asm.method("invoke", FIXED_INVOKE_DESC, locals);
+            //the general entry point hands its arguments on to the fixed one
+            asm.aload(0);
+            asm.aload(INTERPRETER_LOCAL);
+            for(int i = 0; i < FIXED_ARGS; i++){
+                if(i < arity){
+                    asm.aload(ARGS_LOCAL);
+                    asm.iconst(i);
+                    asm.op(Assembler.AALOAD, -1);
+                }
+                else asm.op(Assembler.ACONST_NULL, 1);
+            }
+            asm.invokevirtual("CompiledFunction", "invoke", FIXED_INVOKE_DESC);
+            asm.op(Assembler.ARETURN, -1);
+            asm.method("invoke", INVOKE_DESC, ARGS_LOCAL + 1);
+            return define("LoxJit_" + fn.name.lexeme);
+        } catch(Unsupported e){
+            return null;
+        } finally{
+            end();
+        }
+    }
+    //a loop entered from the interpreter in the middle of running, for on-stack replacement. The
+    //argument array is a copy of the frame the loop runs in, written back when the loop ends; a return
+    //or tail call inside leaves the frame behind and is handed to the interpreter like a function's.
+    CompiledFunction compile(Stmt.While stmt, int frameSize){
+        begin();
+        try{
+            frame(ARGS_LOCAL + 1, frameSize);
+            loadSlots(frameSize);
+            //the interpreter already ran the loop statement itself, the compiled code takes over its iterations
+            stmt.accept(this);
+            for(int i = 0; i < frameSize; i++){
+                asm.aload(ARGS_LOCAL);
+                asm.iconst(i);
+                asm.aload(local(i));
+                asm.op(Assembler.AASTORE, -3);
+            }
+            returning();
+            constant(CompiledFunction.LOOP_EXIT, null);
+            asm.op(Assembler.ARETURN, -1);
+            asm.method("invoke", INVOKE_DESC, locals);
+            return define("LoxJit_loop" + stmt.ln);
+        } catch(Unsupported e){
+            return null;
+        } finally{
+            end();
+        }
+    }
+    private void begin(){
+        asm = new Assembler();
+        constants = new ArrayList<>();
+        constantIndex = new IdentityHashMap<>();
+        counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        loop = null;
+    }
+    //lays out slots frame slots from the JVM local firstSlot on, and the locals after them
+    private void frame(int firstSlot, int slots){
+        this.firstSlot = firstSlot;
+        constantsLocal = firstSlot + slots;
+        locals = constantsLocal + 1;
+        if(locals > 256) throw new Unsupported();
+        asm.aload(0);
+        asm.getfield("CompiledFunction", "constants", "[Ljava/lang/Object;");
+        asm.astore(constantsLocal);
+        instrument();
+    }
+    //keeps what the instrumentation writes to in locals of its own
+    private void instrument(){
+        metricsLocal = newLocal();
+        asm.aload(INTERPRETER_LOCAL);
+        asm.getfield("Interpreter", "metrics", "LMetrics$Local;");
+        asm.astore(metricsLocal);
+        statementsLocal = newLocal();
+        asm.iconst(0);
+        asm.istore(statementsLocal);
+        profilerLocal = -1;
+        if(profiling){
+            profilerLocal = newLocal();
+            asm.aload(INTERPRETER_LOCAL);
+            asm.getfield("Interpreter", "profiler", "LProfiler;");
+            asm.astore(profilerLocal);
+        }
+        hitsLocal = -1;
+        if(coverage){
+            hitsLocal = newLocal();
+            asm.aload(INTERPRETER_LOCAL);
+            asm.getfield("Interpreter", "hits", "[J");
+            asm.astore(hitsLocal);
+        }
+    }
+    private void end(){
+        asm = null;
+        constants = null;
+        constantIndex = null;
+        counted = null;
+    }
+    private void loadSlots(int count){
+        for(int i = 0; i < count; i++){
+            asm.aload(ARGS_LOCAL);
+            asm.iconst(i);
+            asm.op(Assembler.AALOAD, -1);
+            asm.astore(local(i));
+        }
+    }
+    private CompiledFunction define(String name){
+        byte[] bytes = asm.classFile(name, "CompiledFunction");
+        try{
+            //the same code compiled again, by a rerun of a script or another interpreter, reuses the class
+            //and so the machine code HotSpot already made for it. Only the constants differ between them
+            ByteBuffer key = ByteBuffer.wrap(bytes);
+            Class<?> cls = classes.get(key);
+            if(cls == null){
+                cls = lookup.defineHiddenClass(bytes, true).lookupClass();
+                classes.put(key, cls);
+            }
+            CompiledFunction compiled = (CompiledFunction)cls.getDeclaredConstructor().newInstance();
+            compiled.constants = constants.toArray();
+            return compiled;
+        } catch(ReflectiveOperationException e){
+            throw new IllegalStateException("Could not load compiled code " + name, e);
+        }
+    }
+    //implementing Stmt visitor
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt){
+        compile(stmt.statements);
+        return null;
+    }
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt){
+        compile(stmt.expr);
+        asm.op(Assembler.POP, -1);
+        return null;
+    }
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt){
+        throw new Unsupported();
+    }
+    @Override
+    public Void visitIfStmt(Stmt.If stmt){
+        Assembler.Label elseBranch = new Assembler.Label(), end = new Assembler.Label();
+        jumpIfFalse(stmt.condition, elseBranch);
+        hit(stmt.id + 1);
+        compile(stmt.thenBranch);
+        //coverage counts an if without an else not taking its branch
+        boolean otherwise = stmt.elseBranch != null || hitsLocal != -1;
+        if(otherwise) asm.jump(Assembler.GOTO, end, 0);
+        asm.place(elseBranch);
+        if(otherwise){
+            hit(stmt.id + 2);
+            if(stmt.elseBranch != null) compile(stmt.elseBranch);
+            asm.place(end);
+        }
+        return null;
+    }
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt){
+        compile(stmt.expr);
+        asm.invokestatic(RUNTIME, "print", "(Ljava/lang/Object;)V");
+        return null;
+    }
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt){
+        if(stmt.tailCall) call((Expr.Call)stmt.value, "tailCall");
+        else if(stmt.value != null) compile(stmt.value);
+        else asm.op(Assembler.ACONST_NULL, 1);
+        returning();
+        asm.op(Assembler.ARETURN, -1);
+        return null;
+    }
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt){
+        //a global declared by a top-level loop body
+        if(stmt.slot == -1) throw new Unsupported();
+        if(stmt.initializer != null) compile(stmt.initializer);
+        else asm.op(Assembler.ACONST_NULL, 1);
+        asm.astore(local(stmt.slot));
+        return null;
+    }
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt){
+        if(stmt.counter != -1){
+            countingLoop(stmt);
+            return null;
+        }
+        loop = new Loop(loop);
+        asm.place(loop.start);
+        jumpIfFalse(stmt.condition, loop.end);
+        hit(stmt.id + 1);
+        compile(stmt.body);
+        asm.place(loop.next);
+        if(stmt.increment != null){
+            compile(stmt.increment);
+            asm.op(Assembler.POP, -1);
+        }
+        backEdge();
+        //left by the condition or a break
+        asm.place(loop.end);
+        hit(stmt.id + 2);
+        loop = loop.enclosing;
+        return null;
+    }
+    //as Interpreter.countingLoop, with the counter, bound and step in double locals
+    private void countingLoop(Stmt.While stmt){
+        Expr.Binary condition = (Expr.Binary)stmt.condition;
+        int counter = local(stmt.counter), i = doubleLocal(), bound = doubleLocal(), step = doubleLocal();
+        //a counter or bound that isn't a number fails the first comparison, as in the interpreter
+        constant(condition.op, "Token");
+        asm.aload(counter);
+        compile(condition.r);
+        asm.invokestatic(RUNTIME, "checkNumberOperands", "(LToken;Ljava/lang/Object;Ljava/lang/Object;)V");
+        asm.aload(counter);
+        unbox();
+        asm.dstore(i);
+        compile(condition.r);
+        unbox();
+        asm.dstore(bound);
+        constant(stmt.step, null);
+        unbox();
+        asm.dstore(step);
+        loop = new Loop(loop);
+        asm.place(loop.start);
+        asm.dload(i);
+        asm.dload(bound);
+        //NaN compares so that the loop ends, as the comparisons in Java do
+        switch(condition.op.type){
+            case GREATER: asm.op(Assembler.DCMPL, -3); asm.jump(Assembler.IFLE, loop.end, -1); break;
+            case GREATER_EQUAL: asm.op(Assembler.DCMPL, -3); asm.jump(Assembler.IFLT, loop.end, -1); break;
+            case LESS: asm.op(Assembler.DCMPG, -3); asm.jump(Assembler.IFGE, loop.end, -1); break;
+            default: asm.op(Assembler.DCMPG, -3); asm.jump(Assembler.IFGT, loop.end, -1); break;
+        }
+        hit(stmt.id + 1);
+        if(stmt.counterRead){
+            asm.dload(i);
+            boxDouble();
+            asm.astore(counter);
+        }
+        compile(stmt.body);
+        asm.place(loop.next);
+        asm.dload(i);
+        asm.dload(step);
+        asm.op(Assembler.DADD, -2);
+        asm.dstore(i);
+        backEdge();
+        asm.place(loop.end);
+        hit(stmt.id + 2);
+        asm.dload(i);
+        boxDouble();
+        asm.astore(counter);
+        loop = loop.enclosing;
+    }
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt){
+        if(loop == null) throw new Unsupported();
+        asm.jump(Assembler.GOTO, loop.end, 0);
+        return null;
+    }
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt){
+        if(loop == null) throw new Unsupported();
+        asm.jump(Assembler.GOTO, loop.next, 0);
+        return null;
+    }
+    //implementing Expr visitor
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr){
+        compile(expr.value);
+        asm.op(Assembler.DUP, 1);
+        if(expr.access == VariableAccess.GLOBAL){
+            asm.aload(INTERPRETER_LOCAL);
+            constant(expr, "Expr$Assign");
+            asm.invokestatic(RUNTIME, "setGlobal", "(Ljava/lang/Object;LInterpreter;LExpr$Assign;)V");
+        }
+        else asm.astore(local(expr.access, expr.slot));
+        return null;
+    }
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr){
+        compile(expr.l);
+        compile(expr.r);
+        switch(expr.op.type){
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                comparison(expr.op);
+                box();
+                break;
+            case MINUS: arithmetic("subtract", expr.op); break;
+            case PLUS: arithmetic("add", expr.op); break;
+            case SLASH: arithmetic("divide", expr.op); break;
+            case STAR: arithmetic("multiply", expr.op); break;
+            case BANG_EQUAL:
+                asm.invokestatic(RUNTIME, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                not();
+                box();
+                break;
+            case EQUAL_EQUAL:
+                asm.invokestatic(RUNTIME, "isEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Z");
+                box();
+                break;
+        }
+        return null;
+    }
+    @Override
+    public Void visitCallExpr(Expr.Call expr){
+        call(expr, "call");
+        return null;
+    }
+    //runtime is the JitRuntime method making the call, tailCall in tail position
+    private void call(Expr.Call expr, String runtime){
+        compile(expr.callee);
+        constant(expr.paren, "Token");
+        asm.invokestatic(RUNTIME, "callee", "(Ljava/lang/Object;LToken;)LLoxCallable;");
+        //tail calls hand an array on to the trampoline in LoxFunction, which runs them
+        if(runtime.equals("call") && expr.arguments.size() <= FIXED_ARGS){
+            asm.iconst(expr.arguments.size());
+            for(int i = 0; i < FIXED_ARGS; i++){
+                if(i < expr.arguments.size()) compile(expr.arguments.get(i));
+                else asm.op(Assembler.ACONST_NULL, 1);
+            }
+            asm.aload(INTERPRETER_LOCAL);
+            constant(expr.paren, "Token");
+            asm.invokestatic(RUNTIME, "call", FIXED_CALL_DESC);
+            return;
+        }
+        asm.iconst(expr.arguments.size());
+        asm.typeOp(Assembler.ANEWARRAY, "java/lang/Object", 0);
+        for(int i = 0; i < expr.arguments.size(); i++){
+            asm.op(Assembler.DUP, 1);
+            asm.iconst(i);
+            compile(expr.arguments.get(i));
+            asm.op(Assembler.AASTORE, -3);
+        }
+        asm.aload(INTERPRETER_LOCAL);
+        constant(expr.paren, "Token");
+        asm.invokestatic(RUNTIME, runtime, "(LLoxCallable;[Ljava/lang/Object;LInterpreter;LToken;)Ljava/lang/Object;");
+    }
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr){
+        compile(expr.expr);
+        return null;
+    }
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr){
+        if(expr.val == null) asm.op(Assembler.ACONST_NULL, 1);
+        else constant(expr.val, null);
+        return null;
+    }
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr){
+        Assembler.Label shortCircuit = new Assembler.Label(), end = new Assembler.Label();
+        compile(expr.l);
+        asm.op(Assembler.DUP, 1);
+        asm.invokestatic(RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z");
+        //short-circuiting leaves the left operand as the result
+        asm.jump(expr.op.type == TokenType.OR? Assembler.IFNE : Assembler.IFEQ, shortCircuit, -1);
+        asm.op(Assembler.POP, -1);
+        hit(expr.id + 1);
+        compile(expr.r);
+        if(hitsLocal != -1){
+            asm.jump(Assembler.GOTO, end, 0);
+            asm.place(shortCircuit);
+            hit(expr.id);
+            asm.place(end);
+        }
+        else asm.place(shortCircuit);
+        return null;
+    }
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr){
+        compile(expr.r);
+        if(expr.op.type == TokenType.BANG){
+            asm.invokestatic(RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z");
+            not();
+            box();
+        } else{
+            constant(expr.op, "Token");
+            asm.invokestatic(RUNTIME, "negate", "(Ljava/lang/Object;LToken;)Ljava/lang/Object;");
+        }
+        return null;
+    }
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr){
+        if(expr.access == VariableAccess.GLOBAL){
+            asm.aload(INTERPRETER_LOCAL);
+            constant(expr, "Expr$Variable");
+            asm.invokestatic(RUNTIME, "getGlobal", "(LInterpreter;LExpr$Variable;)Ljava/lang/Object;");
+        }
+        else asm.aload(local(expr.access, expr.slot));
+        return null;
+    }
+    //util
+    private void compile(Stmt stmt){
+        if(profilerLocal != -1){
+            asm.aload(profilerLocal);
+            asm.iconst(stmt.ln);
+            asm.putfield("Profiler", "line", "I");
+        }
+        if(!counted.contains(stmt)) count(certain(Collections.singletonList(stmt), 0));
+        counted.remove(stmt);
+        hit(stmt.id);
+        stmt.accept(this);
+    }
+    private void compile(List<Stmt> stmts){
+        for(int i = 0; i < stmts.size(); i++){
+            if(!counted.contains(stmts.get(i))) count(certain(stmts, i));
+            compile(stmts.get(i));
+        }
+    }
+    //marks stmts[from] and the statements certain to start once it has, the first ones of a block it opens
+    //and the ones after it while nothing can jump, and returns how many. A runtime error ends the script,
+    //so at most the statements after it are counted too many
+    private int certain(List<Stmt> stmts, int from){
+        int count = 0;
+        for(int i = from; i < stmts.size(); i++){
+            Stmt stmt = stmts.get(i);
+            counted.add(stmt);
+            count++;
+            if(stmt instanceof Stmt.Block) count += certain(((Stmt.Block)stmt).statements, 0);
+            if(!straight(stmt)) break;
+        }
+        return count;
+    }
+    private static boolean straight(Stmt stmt){
+        if(stmt instanceof Stmt.Block){
+            for(Stmt s: ((Stmt.Block)stmt).statements){
+                if(!straight(s)) return false;
+            }
+            return true;
+        }
+        return stmt instanceof Stmt.Expression || stmt instanceof Stmt.Print || stmt instanceof Stmt.Var;
+    }
+    private void count(int statements){
+        for(; statements > Byte.MAX_VALUE; statements -= Byte.MAX_VALUE) asm.iinc(statementsLocal, Byte.MAX_VALUE);
+        asm.iinc(statementsLocal, statements);
+    }
+    //adds the statements counted to the interpreter's metrics on returning, leaving the stack as it was.
+    //The calls a function is part of publish its count soon enough
+    private void returning(){
+        asm.aload(metricsLocal);
+        asm.op(Assembler.DUP, 1);
+        asm.getfield("Metrics$Local", "statements", "J");
+        asm.iload(statementsLocal);
+        asm.op(Assembler.I2L, 1);
+        asm.op(Assembler.LADD, -2);
+        asm.putfield("Metrics$Local", "statements", "J");
+    }
+    private void publish(){
+        asm.aload(metricsLocal);
+        asm.iload(statementsLocal);
+        asm.invokevirtual("Metrics$Local", "statements", "(I)V");
+    }
+    //jumps back to the start of the loop, publishing the count when it has grown large
+    private void backEdge(){
+        Assembler.Label small = new Assembler.Label();
+        asm.iload(statementsLocal);
+        asm.iconst(PUBLISH_EVERY);
+        asm.jump(Assembler.IF_ICMPLT, small, -2);
+        publish();
+        asm.iconst(0);
+        asm.istore(statementsLocal);
+        asm.place(small);
+        asm.jump(Assembler.GOTO, loop.start, 0);
+    }
+    //hits[id]++, leaving the stack as it was
+    private void hit(int id){
+        if(hitsLocal == -1) return;
+        asm.aload(hitsLocal);
+        asm.iconst(id);
+        asm.op(Assembler.DUP2, 2);
+        asm.op(Assembler.LALOAD, 0);
+        asm.op(Assembler.LCONST_1, 2);
+        asm.op(Assembler.LADD, -2);
+        asm.op(Assembler.LASTORE, -4);
+    }
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+    //each frame slot is a JVM local of its own
+    private int local(int slot){
+        return firstSlot + slot;
+    }
+    private int newLocal(){
+        if(locals == 256) throw new Unsupported();
+        return locals++;
+    }
+    //two JVM locals for a double
+    private int doubleLocal(){
+        int idx = locals;
+        locals += 2;
+        if(locals > 256) throw new Unsupported();
+        return idx;
+    }
+    private int local(byte access, int slot){
+        //declared in an enclosing function: would need its cell
+        if(access != VariableAccess.LOCAL) throw new Unsupported();
+        return local(slot);
+    }
+    private void constant(Object val, String type){
+        Integer idx = constantIndex.get(val);
+        if(idx == null){
+            idx = constants.size();
+            constants.add(val);
+            constantIndex.put(val, idx);
+        }
+        asm.aload(constantsLocal);
+        asm.iconst(idx);
+        asm.op(Assembler.AALOAD, -1);
+        if(type != null) asm.typeOp(Assembler.CHECKCAST, type, 0);
+    }
+    private void arithmetic(String name, Token op){
+        constant(op, "Token");
+        asm.invokestatic(RUNTIME, name, "(Ljava/lang/Object;Ljava/lang/Object;LToken;)Ljava/lang/Object;");
+    }
+    //consumes both operands, leaves an int 0/1
+    private void comparison(Token op){
+        String name = null;
+        switch(op.type){
+            case GREATER: name = "isGreater"; break;
+            case GREATER_EQUAL: name = "isGreaterEqual"; break;
+            case LESS: name = "isLess"; break;
+            case LESS_EQUAL: name = "isLessEqual"; break;
+        }
+        constant(op, "Token");
+        asm.invokestatic(RUNTIME, name, "(Ljava/lang/Object;Ljava/lang/Object;LToken;)Z");
+    }
+    private void not(){
+        asm.iconst(1);
+        asm.op(Assembler.IXOR, -1);
+    }
+    private void box(){
+        asm.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+    private void boxDouble(){
+        asm.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+    }
+    private void unbox(){
+        asm.typeOp(Assembler.CHECKCAST, "java/lang/Double", 0);
+        asm.invokevirtual("java/lang/Double", "doubleValue", "()D");
+    }
+    //branches on conditions without boxing comparison results into Booleans
+    private void jumpIfFalse(Expr condition, Assembler.Label target){
+        if(condition instanceof Expr.Binary){
+            Expr.Binary cmp = (Expr.Binary)condition;
+            switch(cmp.op.type){
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    compile(cmp.l);
+                    compile(cmp.r);
+                    comparison(cmp.op);
+                    asm.jump(Assembler.IFEQ, target, -1);
+                    return;
+            }
+        }
+        compile(condition);
+        asm.invokestatic(RUNTIME, "isTruthy", "(Ljava/lang/Object;)Z");
+        asm.jump(Assembler.IFEQ, target, -1);
+    }
+
+    //minimal class file writer. Classes are emitted as version 49 so the verifier infers
+    //types itself and no StackMapTable frames are needed.
+    private static class Assembler{
+        static class Label{
+            int pos = -1;
+            final List<Integer> fixups = new ArrayList<>();
+        }
+        static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+        static final int LCONST_1 = 0x0a, ILOAD = 0x15, DLOAD = 0x18, ALOAD = 0x19, ALOAD_0 = 0x2a, LALOAD = 0x2f, AALOAD = 0x32;
+        static final int ISTORE = 0x36, DSTORE = 0x39, ASTORE = 0x3a, ASTORE_0 = 0x4b, LASTORE = 0x50;
+        static final int AASTORE = 0x53, POP = 0x57, DUP = 0x59, DUP2 = 0x5c, LADD = 0x61, DADD = 0x63, IXOR = 0x82, IINC = 0x84, I2L = 0x85, DCMPL = 0x97, DCMPG = 0x98;
+        static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+        static final int IF_ICMPLT = 0xa1, GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1;
+        static final int GETFIELD = 0xb4, PUTFIELD = 0xb5, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+        static final int ANEWARRAY = 0xbd, CHECKCAST = 0xc0;
+
+        private static class Method{
+            final int name, desc, maxStack, maxLocals;
+            final byte[] code;
+            Method(int name, int desc, int maxStack, int maxLocals, byte[] code){
+                this.name = name;
+                this.desc = desc;
+                this.maxStack = maxStack;
+                this.maxLocals = maxLocals;
+                this.code = code;
+            }
+        }
+        private final List<Method> methods = new ArrayList<>();
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final Map<String, Integer> poolIndex = new HashMap<>();
+        private int poolCount = 1;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int depth = 0, maxDepth = 0;
+
+        void op(int opcode, int stackEffect){
+            emit(opcode);
+            adjust(stackEffect);
+        }
+        void aload(int idx){
+            if(idx <= 3) op(ALOAD_0 + idx, 1);
+            else{
+                op(ALOAD, 1);
+                emit(idx);
+            }
+        }
+        void astore(int idx){
+            if(idx <= 3) op(ASTORE_0 + idx, -1);
+            else{
+                op(ASTORE, -1);
+                emit(idx);
+            }
+        }
+        void iload(int idx){
+            op(ILOAD, 1);
+            emit(idx);
+        }
+        void istore(int idx){
+            op(ISTORE, -1);
+            emit(idx);
+        }
+        void iinc(int idx, int val){
+            op(IINC, 0);
+            emit(idx);
+            emit(val);
+        }
+        void dload(int idx){
+            op(DLOAD, 2);
+            emit(idx);
+        }
+        void dstore(int idx){
+            op(DSTORE, -2);
+            emit(idx);
+        }
+        void iconst(int val){
+            if(val <= 5) op(ICONST_0 + val, 1);
+            else if(val <= Byte.MAX_VALUE){
+                op(BIPUSH, 1);
+                emit(val);
+            } else if(val <= Short.MAX_VALUE){
+                op(SIPUSH, 1);
+                emit(val >> 8);
+                emit(val);
+            } else{
+                op(LDC_W, 1);
+                emitShort(entry("I" + val, 3, out -> out.writeInt(val)));
+            }
+        }
+        void getfield(String owner, String name, String desc){
+            op(GETFIELD, desc.equals("J") || desc.equals("D") ? 1 : 0);
+            emitShort(member(9, owner, name, desc));
+        }
+        void putfield(String owner, String name, String desc){
+            op(PUTFIELD, desc.equals("J") || desc.equals("D") ? -3 : -2);
+            emitShort(member(9, owner, name, desc));
+        }
+        void invokestatic(String owner, String name, String desc){
+            op(INVOKESTATIC, stackEffect(desc));
+            emitShort(member(10, owner, name, desc));
+        }
+        void invokevirtual(String owner, String name, String desc){
+            op(INVOKEVIRTUAL, stackEffect(desc) - 1);
+            emitShort(member(10, owner, name, desc));
+        }
+        void typeOp(int opcode, String type, int stackEffect){
+            op(opcode, stackEffect);
+            emitShort(classRef(type));
+        }
+        void jump(int opcode, Label target, int stackEffect){
+            int at = length;
+            op(opcode, stackEffect);
+            emitShort(0);
+            if(target.pos >= 0) patch(at, target.pos);
+            else target.fixups.add(at);
+        }
+        void place(Label label){
+            label.pos = length;
+            for(int at: label.fixups) patch(at, label.pos);
+        }
+        //ends the method assembled so far, the code that follows starts the next one
+        void method(String name, String desc, int maxLocals){
+            methods.add(new Method(utf8(name), utf8(desc), maxDepth, maxLocals, Arrays.copyOf(code, length)));
+            length = 0;
+            depth = maxDepth = 0;
+        }
+        byte[] classFile(String name, String superName){
+            int thisIdx = classRef(name), superIdx = classRef(superName);
+            int initName = utf8("<init>"), initDesc = utf8("()V"), superInit = member(10, superName, "<init>", "()V");
+            int codeAttr = utf8("Code");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try{
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(poolCount);
+                pool.writeTo(out);
+                out.writeShort(0x0031); //public final super
+                out.writeShort(thisIdx);
+                out.writeShort(superIdx);
+                out.writeShort(0);  //interfaces
+                out.writeShort(0);  //fields
+                out.writeShort(1 + methods.size());
+                byte[] init = {(byte)ALOAD_0, (byte)INVOKESPECIAL, (byte)(superInit >> 8), (byte)superInit, (byte)RETURN};
+                writeMethod(out, initName, initDesc, codeAttr, 1, 1, init);
+                for(Method method: methods){
+                    writeMethod(out, method.name, method.desc, codeAttr, method.maxStack, method.maxLocals, method.code);
+                }
+                out.writeShort(0);  //attributes
+            } catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            return bytes.toByteArray();
+        }
+        private void writeMethod(DataOutputStream out, int name, int desc, int codeAttr,
+                int maxStack, int maxLocals, byte[] code) throws IOException{
+            out.writeShort(0x0001); //public
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);  //exception table
+            out.writeShort(0);  //attributes
+        }
+        private void patch(int at, int target){
+            int offset = target - at;
+            if(offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new Unsupported();
+            code[at+1] = (byte)(offset >> 8);
+            code[at+2] = (byte)offset;
+        }
+        private void adjust(int stackEffect){
+            depth += stackEffect;
+            if(depth > maxDepth) maxDepth = depth;
+        }
+        private void emit(int b){
+            if(length == code.length) code = Arrays.copyOf(code, length*2);
+            //methods are limited to 64KB of bytecode
+            if(length == 0xffff) throw new Unsupported();
+            code[length++] = (byte)b;
+        }
+        private void emitShort(int s){
+            emit(s >> 8);
+            emit(s);
+        }
+        //static calls pop their arguments and push the result, if any. Doubles take two stack slots
+        private static int stackEffect(String desc){
+            int args = 0;
+            for(int i = 1; desc.charAt(i) != ')'; i++){
+                char ch = desc.charAt(i);
+                boolean array = ch == '[';
+                while(ch == '['){
+                    ch = desc.charAt(++i);
+                }
+                if(ch == 'L') i = desc.indexOf(';', i);
+                args += !array && ch == 'D' ? 2 : 1;
+            }
+            return (desc.endsWith(")V")? 0 : desc.endsWith(")D")? 2 : 1) - args;
+        }
+        private int utf8(String s){
+            return entry("U" + s, 1, out -> out.writeUTF(s));
+        }
+        private int classRef(String name){
+            int nameIdx = utf8(name);
+            return entry("C" + name, 7, out -> out.writeShort(nameIdx));
+        }
+        //tag 10 is a method reference, 9 a field reference
+        private int member(int tag, String owner, String name, String desc){
+            int ownerIdx = classRef(owner), nameIdx = utf8(name), descIdx = utf8(desc);
+            int natIdx = entry("N" + name + ":" + desc, 12, out -> {
+                out.writeShort(nameIdx);
+                out.writeShort(descIdx);
+            });
+            return entry(tag + owner + "." + name + ":" + desc, tag, out -> {
+                out.writeShort(ownerIdx);
+                out.writeShort(natIdx);
+            });
+        }
+        private interface EntryWriter{
+            void write(DataOutputStream out) throws IOException;
+        }
+        private int entry(String key, int tag, EntryWriter writer){
+            Integer idx = poolIndex.get(key);
+            if(idx != null) return idx;
+            DataOutputStream out = new DataOutputStream(pool);
+            try{
+                out.writeByte(tag);
+                writer.write(out);
+            } catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            poolIndex.put(key, poolCount);
+            return poolCount++;
+        }
+    }
+}
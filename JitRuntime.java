@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+//operations called from JIT-compiled code, mirroring the Interpreter's checks and error messages
+final class JitRuntime {
+    private JitRuntime(){}
+
+    static Object add(Object l, Object r, Token op){
+        if(l instanceof Double && r instanceof Double) return (double)l + (double)r;
+        if(l instanceof String && r instanceof String) return (String)l + (String)r;
+        throw new RuntimeError(op, "Both operands must be two numbers or two strings.");
+    }
+    static Object subtract(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l - (double)r;
+    }
+    static Object multiply(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l * (double)r;
+    }
+    static Object divide(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        if((double)r == 0) throw new RuntimeError(op, "Cannot divide by Zero.");
+        return (double)l / (double)r;
+    }
+    static boolean isGreater(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l > (double)r;
+    }
+    static boolean isGreaterEqual(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l >= (double)r;
+    }
+    static boolean isLess(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l < (double)r;
+    }
+    static boolean isLessEqual(Object l, Object r, Token op){
+        checkNumberOperands(op, l, r);
+        return (double)l <= (double)r;
+    }
+    static Object negate(Object r, Token op){
+        if(!(r instanceof Double)) throw new RuntimeError(op, "Operand must be a number.");
+        return -(double)r;
+    }
+    static boolean isTruthy(Object obj){
+        return Interpreter.isTruthy(obj);
+    }
+    static boolean isEqual(Object l, Object r){
+        return Interpreter.isEqual(l, r);
+    }
+    static void print(Object val){
+        System.out.println(Interpreter.stringify(val));
+    }
+    static LoxCallable callee(Object callee, Token paren){
+        if(!(callee instanceof LoxCallable)){
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+        return (LoxCallable)callee;
+    }
+    //calls with up to three arguments pass them as they are, null past argc
+    static Object call(LoxCallable fn, int argc, Object a, Object b, Object c, Interpreter interpreter, Token paren){
+        if(argc != fn.arity()){
+            throw new RuntimeError(paren, "Expected " + fn.arity() + " arguments but got " + argc + ".");
+        }
+        if(interpreter.profiler != null) return interpreter.profiledCall(fn, arguments(argc, a, b, c), paren.ln);
+        switch(argc){
+            case 0: return fn.call0(interpreter);
+            case 1: return fn.call1(interpreter, a);
+            case 2: return fn.call2(interpreter, a, b);
+            default: return fn.call3(interpreter, a, b, c);
+        }
+    }
+    private static Object[] arguments(int argc, Object a, Object b, Object c){
+        return Arrays.copyOf(new Object[]{a, b, c}, argc);
+    }
+    static Object call(LoxCallable fn, Object[] args, Interpreter interpreter, Token paren){
+        if(args.length != fn.arity()){
+            throw new RuntimeError(paren, "Expected " + fn.arity() + " arguments but got " +
+                args.length + ".");
+        }
+        if(interpreter.profiler != null) return interpreter.profiledCall(fn, args, paren.ln);
+        return fn.call(interpreter, args);
+    }
+    static Object tailCall(LoxCallable fn, Object[] args, Interpreter interpreter, Token paren){
+        if(args.length != fn.arity()){
+            throw new RuntimeError(paren, "Expected " + fn.arity() + " arguments but got " +
+                args.length + ".");
+        }
+        if(!(fn instanceof LoxFunction)) return fn.call(interpreter, args);
+        interpreter.tailCallee = (LoxFunction)fn;
+        interpreter.tailArguments = args;
+        return CompiledFunction.TAIL_CALL;
+    }
+    static Object getGlobal(Interpreter interpreter, Expr.Variable expr){
+        return interpreter.globals.get(interpreter.global(expr), expr.name);
+    }
+    static void setGlobal(Object val, Interpreter interpreter, Expr.Assign expr){
+        interpreter.globals.assign(interpreter.global(expr), expr.name, val);
+    }
+    static void checkNumberOperands(Token op, Object l, Object r){
+        if(l instanceof Double && r instanceof Double) return;
+        throw new RuntimeError(op, "Operands must be numbers.");
+    }
+}
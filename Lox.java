@@ -1,29 +1,92 @@
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null;
+    private static Profiler profiler = null;
+    private static Coverage coverage = null;
+    //keep the parsed script as a FlatAst, decoding a top-level statement at a time
+    private static boolean compact = false;
+    //named in the lox.Script flight recorder event
+    private static String backend = "interpreter";
     private static boolean errorOccurred = false;
     private static boolean runtimeErrorOccurred = false;
     public static void main(String[] args) throws IOException{
-        if(args.length > 1){
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
+        int argc = 0;
+        //leading flags select the execution backend
+        while(argc < args.length && args[argc].startsWith("--")){
+            if(args[argc].equals("--vm")){
+                vm = new VM();
+                backend = "vm";
+            }
+            else if(args[argc].equals("--jit")){
+                interpreter.enableJit();
+                backend = "jit";
+            }
+            else if(args[argc].equals("--profile")) profiler = new Profiler();
+            else if(args[argc].equals("--coverage")) coverage = new Coverage();
+            else if(args[argc].equals("--jmx")) Metrics.register();
+            else if(args[argc].equals("--compact")) compact = true;
+            else usage();
+            argc++;
+        }
+        //the profiler instruments the tree-walking interpreter, and only reports on scripts
+        if(profiler != null && (vm != null || args.length - argc != 1)) usage();
+        if(profiler != null) interpreter.enableProfiler(profiler);
+        //the VM's bytecode has no counters, coverage is kept by the tree-walker and the code it compiles
+        if(coverage != null && (vm != null || args.length - argc != 1)) usage();
+        //coverage numbers the nodes of the whole program up front
+        if(compact && coverage != null) usage();
+        //coverage counts every statement and branch, so the profiler would time the counting as well
+        if(profiler != null && coverage != null) usage();
+        if(args.length - argc > 1) usage();
+        else if(args.length - argc == 1){
+            int status = runFile(args[argc]);
+            if(status != 0) System.exit(status);
         }
-        else if(args.length == 1) runFile(args[0]);
         else runPrompt();
     }
 
-    private static void runFile(String path) throws IOException{
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(errorOccurred) System.exit(65);
-        if(runtimeErrorOccurred) System.exit(70);
+    private static void usage(){
+        System.out.println("Usage: jlox [--jmx] [--compact] [--vm | --jit] [script]\n       jlox [--jmx] [--compact] [--jit] --profile script\n       jlox [--jmx] [--jit] --coverage script");
+        System.exit(64);
+    }
+
+    //runs a script and returns the status to exit with, so it can also be run repeatedly in one JVM
+    static int runFile(String path) throws IOException{
+        errorOccurred = false;
+        //scanned straight from the page cache, the only copy of the source kept is in the tokens the AST holds
+        try(FileChannel channel = FileChannel.open(Paths.get(path))){
+            //a single mapping is limited to 2GB
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is larger than 2GB");
+            ByteBuffer src = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(profiler != null) profiler.start();
+            run(new Scanner(src), src.limit());
+        }
+        if(profiler != null){
+            profiler.stop();
+            profiler.report(System.err);
+            //named after the script, in the current directory
+            Path collapsed = Paths.get(Paths.get(path).getFileName() + ".collapsed");
+            profiler.writeCollapsed(collapsed);
+            System.err.println("collapsed stacks written to " + collapsed);
+        }
+        if(coverage != null){
+            coverage.report(System.err);
+            Path lcov = Paths.get(Paths.get(path).getFileName() + ".lcov");
+            coverage.writeLcov(Paths.get(path), lcov);
+            System.err.println("coverage written to " + lcov);
+        }
+        if(errorOccurred) return 65;
+        if(runtimeErrorOccurred) return 70;
+        return 0;
     }
 
     private static void runPrompt() throws IOException{
@@ -33,21 +96,79 @@ public class Lox {
             System.out.print("> ");
             String ln = reader.readLine();
             if(ln == null) break;
-            run(ln);
+            run(new Scanner(ln), ln.length());
             errorOccurred = false;
         }
     }
 
-    private static void run(String src){
-        Scanner sc = new Scanner(src);
-        List<Token> tokens = sc.scanTokens();
-        Parser parser = new Parser(tokens);
+    private static void run(Scanner src, int sourceLength){
+        Metrics.scripts.increment();
+        runtimeErrorOccurred = false;
+        LoxEvents.Script event = LoxEvents.recording() ? new LoxEvents.Script() : null;
+        if(event != null) event.begin();
+        try{
+            compileAndRun(src);
+        } finally{
+            if(event != null) commit(event, sourceLength);
+        }
+    }
+    private static void commit(LoxEvents.Script event, int sourceLength){
+        event.end();
+        if(event.shouldCommit()){
+            event.backend = backend;
+            event.sourceLength = sourceLength;
+            event.outcome = errorOccurred ? "error" : runtimeErrorOccurred ? "runtime error" : "ok";
+            event.commit();
+        }
+    }
+    private static void compileAndRun(Scanner src){
+        Parser parser = new Parser(src);
+        if(compact){
+            runCompact(parser.parseCompact());
+            return;
+        }
         List<Stmt> statements = parser.parse();
         if(errorOccurred) return;
-        Resolver resolver = new Resolver(interpreter);
+        Runnable program = prepare(statements, new Resolver(), new Resolver());
+        if(program != null) program.run();
+    }
+    //resolves, optimizes and compiles statements for the selected backend, null if there were errors.
+    //The optimizer's output is resolved again by the second resolver
+    private static Runnable prepare(List<Stmt> statements, Resolver resolver, Resolver optimized){
         resolver.resolve(statements);
+        if(errorOccurred) return null;
+        List<Stmt> result = new Optimizer().optimize(statements);
+        optimized.resolve(result);
+        if(coverage != null) interpreter.enableCoverage(coverage.instrument(result));
+        if(vm == null) return () -> interpreter.interpret(result);
+        VM.Function script = new Compiler(vm).compile(result);
+        if(errorOccurred) return null;
+        return () -> vm.interpret(script);
+    }
+    //top-level statements resolve and compile on their own, so only the one about to run needs to be a tree.
+    //All of them are prepared before the first one runs, an error anywhere still keeps the whole script
+    //from running. Prepared statements are kept for the run up to KEPT_NODES nodes, the rest are decoded
+    //and prepared again when their turn comes
+    private static final int KEPT_NODES = 1 << 16;
+    private static void runCompact(FlatAst program){
+        if(errorOccurred) return;
+        //neither keeps any state from one top-level statement to the next
+        Resolver resolver = new Resolver(), optimized = new Resolver();
+        Runnable[] prepared = new Runnable[program.size()];
+        int kept = 0;
+        for(int i = 0; i < program.size(); i++){
+            Runnable statement = prepare(program.decode(i), resolver, optimized);
+            if(statement != null && kept + program.nodes(i) <= KEPT_NODES){
+                prepared[i] = statement;
+                kept += program.nodes(i);
+            }
+        }
         if(errorOccurred) return;
-        interpreter.interpret(statements);
+        for(int i = 0; i < program.size() && !runtimeErrorOccurred; i++){
+            Runnable statement = prepared[i] != null ? prepared[i] : prepare(program.decode(i), resolver, optimized);
+            prepared[i] = null;
+            statement.run();
+        }
     }
     
     static void error(int ln, String msg){
@@ -67,5 +188,6 @@ public class Lox {
     static void runtimeError(RuntimeError e){
        System.err.println(e.getMessage() + "\n[line " + e.token.ln + "]");
        runtimeErrorOccurred = true;
+       LoxEvents.runtimeError(e);
     }
 }
\ No newline at end of file
@@ -1,6 +1,18 @@
-import java.util.List;
-
 interface LoxCallable{
-    Object call(Interpreter interpreter, List<Object> arguments);
+    //general entry point, for any number of arguments
+    Object call(Interpreter interpreter, Object[] arguments);
     int arity();
-}
\ No newline at end of file
+    //fixed-arity entry points, so callers can pass a few arguments without collecting them first
+    default Object call0(Interpreter interpreter){
+        return call(interpreter, new Object[0]);
+    }
+    default Object call1(Interpreter interpreter, Object a){
+        return call(interpreter, new Object[]{a});
+    }
+    default Object call2(Interpreter interpreter, Object a, Object b){
+        return call(interpreter, new Object[]{a, b});
+    }
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        return call(interpreter, new Object[]{a, b, c});
+    }
+}
@@ -0,0 +1,108 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Threshold;
+
+//JDK Flight Recorder events emitted by the interpreter, all under the "Lox" category.
+//Nothing is recorded unless a recording enables them, e.g. with -XX:StartFlightRecording or jcmd JFR.start
+final class LoxEvents {
+    private LoxEvents(){}
+
+    @Name("lox.Script")
+    @Label("Script")
+    @Category("Lox")
+    @Description("Scanning, parsing, resolving and running one script or prompt line")
+    static class Script extends Event{
+        @Label("Backend")
+        String backend;
+        @Label("Source Length")
+        @Description("Length of the source in bytes, or in characters for a line typed at the prompt")
+        int sourceLength;
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("lox.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Lox")
+    static class RuntimeErrorEvent extends Event{
+        @Label("Message")
+        String message;
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.SlowCall")
+    @Label("Slow Call")
+    @Category("Lox")
+    @Description("A call to a Lox function that took longer than the threshold, including the tail calls it made")
+    @Threshold("20 ms")
+    static class SlowCall extends Event{
+        @Label("Function")
+        String function;
+        @Label("Line")
+        int line;
+    }
+
+    @Name("lox.EnvironmentAllocation")
+    @Label("Environment Allocation Burst")
+    @Category("Lox")
+    @Description("Environments created during the last period, emitted when there were at least " + EnvironmentAllocation.BURST)
+    @Period("1 s")
+    static class EnvironmentAllocation extends Event{
+        static final long BURST = 100_000;
+        @Label("Environments Created")
+        long environments;
+    }
+
+    //the first use of an event class starts the recorder, which would cost every launch hundreds of classes
+    //and a few hundred milliseconds. So no event is touched until a recording has started it, with
+    //-XX:StartFlightRecording or jcmd JFR.start; the recorder is looked for again at the start of every script.
+    //slowCalls asks whether a recording has slow calls enabled without allocating an event per call,
+    //JFR instruments the class when a recording starts so this also sees recordings started later
+    private static SlowCall slowCalls = null;
+    private static long lastEnvironments = 0;
+
+    //whether the recorder is running, so events can be used
+    static boolean recording(){
+        if(slowCalls != null) return true;
+        if(!FlightRecorder.isInitialized()) return false;
+        slowCalls = new SlowCall();
+        FlightRecorder.addPeriodicEvent(EnvironmentAllocation.class, () -> {
+            long environments = Metrics.environments.sum();
+            EnvironmentAllocation event = new EnvironmentAllocation();
+            event.environments = environments - lastEnvironments;
+            lastEnvironments = environments;
+            if(event.environments >= EnvironmentAllocation.BURST) event.commit();
+        });
+        return true;
+    }
+
+    //null when no recording wants slow calls, otherwise an event already timing the call
+    static SlowCall beginCall(){
+        if(slowCalls == null || !slowCalls.isEnabled()) return null;
+        SlowCall event = new SlowCall();
+        event.begin();
+        return event;
+    }
+    static void endCall(SlowCall event, Stmt.Function function){
+        event.end();
+        if(!event.shouldCommit()) return;
+        event.function = function.name.lexeme;
+        event.line = function.name.ln;
+        event.commit();
+    }
+
+    static void runtimeError(RuntimeError error){
+        if(!recording()) return;
+        RuntimeErrorEvent event = new RuntimeErrorEvent();
+        if(!event.isEnabled()) return;
+        event.message = error.getMessage();
+        event.line = error.token.ln;
+        event.commit();
+    }
+}
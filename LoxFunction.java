@@ -1,30 +1,138 @@
-import java.util.List;
-
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
-    private final Environment closure;
-    LoxFunction(Stmt.Function declaration, Environment closure){
-        this.closure = closure;
+    //only the cells of the enclosing locals the body uses, not the frames they were declared in
+    private final Cell[] upvalues;
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues){
+        this.upvalues = upvalues;
         this.declaration = declaration;
     }
+    Stmt.Function declaration(){
+        return declaration;
+    }
     @Override
     public int arity(){
         return declaration.params.size();
     }
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments){
-        //consult closing environment first and not straightaway global environment.
-        Environment env = new Environment(closure);
-        for(int i = 0; i < declaration.params.size(); i++){
-            env.define(declaration.params.get(i).lexeme, arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments){
+        //compiled functions never read upvalues, they only use their own locals and globals
+        if(declaration.compiled != null) return invoke(interpreter, arguments, null, null, null);
+        int base = interpreter.pushFrame(declaration.frameSize);
+        System.arraycopy(arguments, 0, interpreter.stack, base, arguments.length);
+        return execute(interpreter, base);
+    }
+    //the fixed-arity calls put the arguments straight into the parameter slots
+    @Override
+    public Object call0(Interpreter interpreter){
+        if(declaration.compiled != null) return invoke(interpreter, null, null, null, null);
+        return execute(interpreter, interpreter.pushFrame(declaration.frameSize));
+    }
+    @Override
+    public Object call1(Interpreter interpreter, Object a){
+        if(declaration.compiled != null) return invoke(interpreter, null, a, null, null);
+        int base = interpreter.pushFrame(declaration.frameSize);
+        interpreter.stack[base] = a;
+        return execute(interpreter, base);
+    }
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b){
+        if(declaration.compiled != null) return invoke(interpreter, null, a, b, null);
+        int base = interpreter.pushFrame(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        stack[base] = a;
+        stack[base+1] = b;
+        return execute(interpreter, base);
+    }
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c){
+        if(declaration.compiled != null) return invoke(interpreter, null, a, b, c);
+        int base = interpreter.pushFrame(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        stack[base] = a;
+        stack[base+1] = b;
+        stack[base+2] = c;
+        return execute(interpreter, base);
+    }
+    //runs the body in the frame at base, which already holds the arguments
+    private Object execute(Interpreter interpreter, int base){
+        //a function called often enough is compiled, which its next call picks up
+        if(++declaration.calls == Interpreter.HOT_CALLS) interpreter.tierUp(declaration);
+        LoxEvents.SlowCall event = enter(interpreter);
+        int callerFp = interpreter.fp;
+        Cell[] callerUpvalues = interpreter.upvalues;
+        try{
+            //a return deep within the body unwinds back to here as a completion
+            Completion completion = body(interpreter, base);
+            if(completion == Completion.RETURN) return interpreter.takeReturnValue();
+            if(completion == Completion.TAIL_CALL) return trampoline(interpreter, base);
+            return null;
+        } finally{
+            interpreter.fp = callerFp;
+            interpreter.upvalues = callerUpvalues;
+            interpreter.popFrame(base);
+            exit(interpreter, event);
         }
+    }
+    //runs the compiled body on the arguments in the array, or on a, b and c when there is none
+    private Object invoke(Interpreter interpreter, Object[] arguments, Object a, Object b, Object c){
+        LoxEvents.SlowCall event = enter(interpreter);
+        //compiled code keeps its locals on the JVM stack, only interpreted tail calls it makes need a frame
+        int callerFp = interpreter.fp, base = interpreter.sp;
+        Cell[] callerUpvalues = interpreter.upvalues;
         try{
-            interpreter.execBlock(declaration.body, env);
-        } catch(Return returnVal){
-            //if some function returns some value deep within the call stack
-            return returnVal.value;
+            CompiledFunction compiled = declaration.compiled;
+            Object result = arguments != null ? compiled.invoke(interpreter, arguments) : compiled.invoke(interpreter, a, b, c);
+            if(result == CompiledFunction.TAIL_CALL) return trampoline(interpreter, base);
+            return result;
+        } finally{
+            interpreter.fp = callerFp;
+            interpreter.upvalues = callerUpvalues;
+            interpreter.popFrame(base);
+            exit(interpreter, event);
+        }
+    }
+    private Completion body(Interpreter interpreter, int base){
+        //captured parameters move into cells before anything can capture them
+        Object[] stack = interpreter.stack;
+        for(int slot: declaration.cellParams) stack[base + slot] = new Cell(stack[base + slot]);
+        interpreter.fp = base;
+        interpreter.upvalues = upvalues;
+        return interpreter.execBlock(declaration.body);
+    }
+    private LoxEvents.SlowCall enter(Interpreter interpreter){
+        interpreter.metrics.call();
+        if(interpreter.hits != null) interpreter.hits[declaration.id + 1]++;
+        return LoxEvents.beginCall();
+    }
+    private void exit(Interpreter interpreter, LoxEvents.SlowCall event){
+        interpreter.metrics.returned();
+        if(event != null) LoxEvents.endCall(event, declaration);
+    }
+    //tail calls replace the current call in this loop rather than nesting on the Java stack,
+    //interpreted ones taking over the frame at base
+    private static Object trampoline(Interpreter interpreter, int base){
+        for(;;){
+            LoxFunction fn = interpreter.tailCallee;
+            Object[] arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailArguments = null;
+            if(interpreter.profiler != null) interpreter.profiler.tailCall(fn);
+            interpreter.metrics.tailCall();
+            if(interpreter.hits != null) interpreter.hits[fn.declaration.id + 1]++;
+            if(fn.declaration.compiled != null){
+                Object result = fn.declaration.compiled.invoke(interpreter, arguments);
+                if(result != CompiledFunction.TAIL_CALL) return result;
+            }
+            else{
+                if(++fn.declaration.calls == Interpreter.HOT_CALLS) interpreter.tierUp(fn.declaration);
+                interpreter.popFrame(base);
+                interpreter.pushFrame(fn.declaration.frameSize);
+                System.arraycopy(arguments, 0, interpreter.stack, base, arguments.length);
+                Completion completion = fn.body(interpreter, base);
+                if(completion == Completion.RETURN) return interpreter.takeReturnValue();
+                if(completion != Completion.TAIL_CALL) return null;
+            }
         }
-        return null;
     }
     @Override
     public String toString(){
@@ -0,0 +1,93 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+//live interpreter counters, published over JMX as jlox:type=Metrics when --jmx is given. They are
+//always counted: each interpreter counts in plain fields and adds them to these LongAdders every few
+//thousand statements and calls, so the published values trail the interpreter by a few microseconds
+public class Metrics implements MetricsMBean {
+    //statements run, by the tree-walker and by JIT-compiled code
+    static final LongAdder statements = new LongAdder();
+    //calls to Lox functions, tail calls included
+    static final LongAdder calls = new LongAdder();
+    //local scopes set up: a frame on the value stack for each interpreted call and top-level block
+    static final LongAdder environments = new LongAdder();
+    //calls to Lox functions in progress, a chain of tail calls counts once
+    static final LongAdder callDepth = new LongAdder();
+    static final LongAdder scripts = new LongAdder();
+
+    //counts of one interpreter not yet added to the shared counters
+    static final class Local{
+        private static final int FLUSH_EVERY = 4096;
+        //compiled code adds to statements directly when it returns, its call already counts towards a flush
+        long statements;
+        private long calls, environments;
+        private int pending = 0, depth = 0, publishedDepth = 0;
+        void statement(){
+            statements++;
+            if(++pending >= FLUSH_EVERY) flush();
+        }
+        //a compiled loop adds its statements every few thousand
+        void statements(int count){
+            statements += count;
+            pending += count;
+            if(pending >= FLUSH_EVERY) flush();
+        }
+        void call(){
+            calls++;
+            depth++;
+            if(++pending >= FLUSH_EVERY) flush();
+        }
+        //replaces the call in progress, so the depth stays the same
+        void tailCall(){
+            calls++;
+            if(++pending >= FLUSH_EVERY) flush();
+        }
+        void returned(){
+            depth--;
+        }
+        void environment(){
+            environments++;
+        }
+        void flush(){
+            Metrics.statements.add(statements);
+            Metrics.calls.add(calls);
+            Metrics.environments.add(environments);
+            Metrics.callDepth.add(depth - publishedDepth);
+            statements = calls = environments = 0;
+            publishedDepth = depth;
+            pending = 0;
+        }
+    }
+
+    //the platform MBean server takes a few hundred milliseconds to start, so this is opt-in
+    static void register(){
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName("jlox:type=Metrics"));
+        } catch(JMException e){
+            System.err.println("Could not register JMX metrics: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public long getStatementsExecuted(){
+        return statements.sum();
+    }
+    @Override
+    public long getCalls(){
+        return calls.sum();
+    }
+    @Override
+    public long getEnvironmentsCreated(){
+        return environments.sum();
+    }
+    @Override
+    public long getCallDepth(){
+        return callDepth.sum();
+    }
+    @Override
+    public long getScriptsRun(){
+        return scripts.sum();
+    }
+}
@@ -0,0 +1,8 @@
+//JMX view of Metrics, JMX only introspects public interfaces named after the class
+public interface MetricsMBean {
+    long getStatementsExecuted();
+    long getCalls();
+    long getEnvironmentsCreated();
+    long getCallDepth();
+    long getScriptsRun();
+}
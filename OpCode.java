@@ -0,0 +1,45 @@
+//instruction set of the bytecode VM, operands follow the opcode in the chunk
+final class OpCode {
+    static final byte CONSTANT = 0;         //u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;        //u8 slot
+    static final byte SET_LOCAL = 6;        //u8 slot
+    static final byte GET_GLOBAL = 7;       //u16 name constant
+    static final byte DEFINE_GLOBAL = 8;    //u16 name constant
+    static final byte SET_GLOBAL = 9;       //u16 name constant
+    static final byte GET_UPVALUE = 10;     //u8 upvalue index
+    static final byte SET_UPVALUE = 11;     //u8 upvalue index
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+    static final byte PRINT = 24;
+    static final byte JUMP = 25;            //u16 forward offset
+    static final byte JUMP_IF_FALSE = 26;   //u16 forward offset, leaves the condition on the stack
+    static final byte JUMP_IF_TRUE = 27;    //u16 forward offset, leaves the condition on the stack
+    static final byte POP_JUMP_IF_FALSE = 28; //u16 forward offset
+    static final byte LOOP = 29;            //u16 backward offset
+    static final byte CHECK_CALLABLE = 30;
+    static final byte CALL = 31;            //u8 argument count
+    static final byte CLOSURE = 32;         //u16 function constant, then (isLocal, index) byte pairs
+    static final byte CLOSE_UPVALUE = 33;
+    static final byte RETURN = 34;
+    //comparison fused with the conditional jump of an if or while, pops both operands
+    static final byte JUMP_IF_NOT_GREATER = 35;       //u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_EQUAL = 36; //u16 forward offset
+    static final byte JUMP_IF_NOT_LESS = 37;          //u16 forward offset
+    static final byte JUMP_IF_NOT_LESS_EQUAL = 38;    //u16 forward offset
+
+    private OpCode(){}
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.List;
+
+//rewrites a resolved program into a cheaper equivalent one. Nodes are rebuilt rather than
+//mutated, so the result has to go through the Resolver again before it is run.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>{
+    List<Stmt> optimize(List<Stmt> statements){
+        List<Stmt> result = new ArrayList<>();
+        for(Stmt stmt: statements) append(result, optimize(stmt));
+        return result;
+    }
+    //adds stmt to a statement list, splicing in blocks that declare nothing since their scope is unobservable
+    private void append(List<Stmt> statements, Stmt stmt){
+        if(stmt == null) return;
+        if(stmt instanceof Stmt.Block && !declares((Stmt.Block)stmt)){
+            statements.addAll(((Stmt.Block)stmt).statements);
+        }
+        else statements.add(stmt);
+    }
+    private static boolean declares(Stmt.Block block){
+        for(Stmt stmt: block.statements){
+            if(stmt instanceof Stmt.Var || stmt instanceof Stmt.Function) return true;
+        }
+        return false;
+    }
+    private Stmt optimize(Stmt stmt){
+        Stmt result = stmt.accept(this);
+        if(result != null && result.ln == 0) result.ln = stmt.ln;
+        return result;
+    }
+    private Expr optimize(Expr expr){
+        return expr.accept(this);
+    }
+    //for the branches of if and while, which need some statement to hold on to
+    private Stmt body(Stmt stmt){
+        Stmt result = unwrap(optimize(stmt));
+        if(result == null){
+            result = new Stmt.Block(new ArrayList<Stmt>());
+            result.ln = stmt.ln;
+        }
+        return result;
+    }
+    private static Stmt unwrap(Stmt stmt){
+        if(stmt instanceof Stmt.Block && !declares((Stmt.Block)stmt)){
+            List<Stmt> statements = ((Stmt.Block)stmt).statements;
+            if(statements.size() == 1) return statements.get(0);
+        }
+        return stmt;
+    }
+    //an expression whose value only matters for its truthiness
+    private Expr condition(Expr expr){
+        return truthiness(optimize(expr));
+    }
+    private Expr truthiness(Expr expr){
+        //!!x has the same truthiness as x
+        if(expr instanceof Expr.Unary && ((Expr.Unary)expr).op.type == TokenType.BANG){
+            Expr r = ((Expr.Unary)expr).r;
+            if(r instanceof Expr.Unary && ((Expr.Unary)r).op.type == TokenType.BANG){
+                return truthiness(((Expr.Unary)r).r);
+            }
+        }
+        //and/or yield one of their operands, so both only matter for their truthiness too
+        if(expr instanceof Expr.Logical){
+            Expr.Logical logical = (Expr.Logical)expr;
+            return new Expr.Logical(truthiness(logical.l), logical.op, truthiness(logical.r));
+        }
+        return expr;
+    }
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt){
+        List<Stmt> statements = optimize(stmt.statements);
+        return new Stmt.Block(statements);
+    }
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt){
+        Expr expr = optimize(stmt.expr);
+        //a literal on its own has no effect
+        if(expr instanceof Expr.Literal) return null;
+        return new Stmt.Expression(expr);
+    }
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt){
+        return new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+    }
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt){
+        Expr condition = condition(stmt.condition);
+        if(condition instanceof Expr.Literal){
+            if(Interpreter.isTruthy(((Expr.Literal)condition).val)) return optimize(stmt.thenBranch);
+            if(stmt.elseBranch != null) return optimize(stmt.elseBranch);
+            return null;
+        }
+        Stmt elseBranch = stmt.elseBranch == null ? null : unwrap(optimize(stmt.elseBranch));
+        return new Stmt.If(condition, body(stmt.thenBranch), elseBranch);
+    }
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt){
+        return new Stmt.Print(optimize(stmt.expr));
+    }
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt){
+        Expr val = stmt.value == null ? null : optimize(stmt.value);
+        return new Stmt.Return(stmt.keyword, val);
+    }
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt){
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        return new Stmt.Var(stmt.name, initializer);
+    }
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt){
+        Expr condition = condition(stmt.condition);
+        if(condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal)condition).val)){
+            return null;
+        }
+        Expr increment = stmt.increment == null ? null : optimize(stmt.increment);
+        if(increment instanceof Expr.Literal) increment = null;
+        return new Stmt.While(condition, body(stmt.body), increment);
+    }
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt){
+        return stmt;
+    }
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt){
+        return stmt;
+    }
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr){
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr){
+        Expr l = optimize(expr.l), r = optimize(expr.r);
+        if(l instanceof Expr.Literal && r instanceof Expr.Literal){
+            Object folded = fold(expr.op, ((Expr.Literal)l).val, ((Expr.Literal)r).val);
+            if(folded != null) return new Expr.Literal(folded);
+        }
+        return new Expr.Binary(l, expr.op, r);
+    }
+    //the value of a binary operator on constants, or null when it has to be left to raise its runtime error
+    private static Object fold(Token op, Object l, Object r){
+        switch(op.type){
+            case EQUAL_EQUAL:
+                return Interpreter.isEqual(l, r);
+            case BANG_EQUAL:
+                return !Interpreter.isEqual(l, r);
+            case PLUS:
+                if(l instanceof String && r instanceof String) return (String)l + (String)r;
+                break;
+        }
+        if(!(l instanceof Double) || !(r instanceof Double)) return null;
+        double a = (double)l, b = (double)r;
+        switch(op.type){
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH: return b == 0 ? null : (Object)(a / b);
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+        }
+        return null;
+    }
+    @Override
+    public Expr visitCallExpr(Expr.Call expr){
+        List<Expr> args = new ArrayList<>();
+        for(Expr arg: expr.arguments) args.add(optimize(arg));
+        return new Expr.Call(optimize(expr.callee), expr.paren, args);
+    }
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr){
+        //parentheses only matter to the parser
+        return optimize(expr.expr);
+    }
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr){
+        return expr;
+    }
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr){
+        Expr l = optimize(expr.l), r = optimize(expr.r);
+        if(l instanceof Expr.Literal){
+            //or keeps a truthy left operand and and keeps a falsey one, otherwise the result is the right operand
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)l).val);
+            if(truthy == (expr.op.type == TokenType.OR)) return l;
+            return r;
+        }
+        return new Expr.Logical(l, expr.op, r);
+    }
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr){
+        Expr r = optimize(expr.r);
+        if(r instanceof Expr.Literal){
+            Object val = ((Expr.Literal)r).val;
+            if(expr.op.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(val));
+            if(val instanceof Double) return new Expr.Literal(-(double)val);
+        }
+        return new Expr.Unary(expr.op, r);
+    }
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr){
+        return expr;
+    }
+}
@@ -1,15 +1,41 @@
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 public class Parser {
-    private final List<Token> tokens;
-    private int curr = 0;
+    //only the current token and the one before it are kept, so tokens can come straight from the scanner
+    private final Iterator<Token> tokens;
+    private Token curr, prev = null;
     private static class ParseError extends RuntimeException{
 
+    }
+    //how tightly each binary operator binds, zero for tokens that aren't one
+    private static final int OR = 1, AND = 2, EQUALITY = 3, COMPARISON = 4, TERM = 5, FACTOR = 6;
+    private static final int[] PRECEDENCE = new int[TokenType.values().length];
+    static {
+        PRECEDENCE[TokenType.OR.ordinal()] = OR;
+        PRECEDENCE[TokenType.AND.ordinal()] = AND;
+        PRECEDENCE[TokenType.BANG_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[TokenType.GREATER.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.LESS.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[TokenType.MINUS.ordinal()] = TERM;
+        PRECEDENCE[TokenType.PLUS.ordinal()] = TERM;
+        PRECEDENCE[TokenType.SLASH.ordinal()] = FACTOR;
+        PRECEDENCE[TokenType.STAR.ordinal()] = FACTOR;
     }
     Parser(List<Token> tokens){
+        this(tokens.iterator());
+    }
+    Parser(Scanner scanner){
+        this(scanner.tokens());
+    }
+    private Parser(Iterator<Token> tokens){
         this.tokens = tokens;
+        curr = tokens.next();
     }
     // Expr parse(){
     //     try{
@@ -23,10 +49,18 @@ public class Parser {
         while(!isAtEnd()) statements.add(declaration());
         return statements;
     }
+    //encodes each top-level statement as soon as it is parsed, so the whole tree never exists at once
+    FlatAst parseCompact(){
+        FlatAst program = new FlatAst();
+        while(!isAtEnd()) program.add(declaration());
+        program.trim();
+        return program;
+    }
     private Stmt declaration(){
+        int ln = peek().ln;
         try{
-            if(match(TokenType.FUN)) return function("function");
-            if(match(TokenType.VAR)) return varDeclaration();
+            if(match(TokenType.FUN)) return line(function("function"), ln);
+            if(match(TokenType.VAR)) return line(varDeclaration(), ln);
             return statement();
         } catch(ParseError e){
             synchronize();
@@ -41,23 +75,33 @@ public class Parser {
         return new Stmt.Var(name, initializer); 
     }
     private Stmt statement(){
-        if(match(TokenType.FOR)) return forStatement();
-        if(match(TokenType.IF)) return ifStatement();
-        if(match(TokenType.WHILE)) return whileStatement();
-        if(match(TokenType.PRINT)) return printStatement();
-        if(match(TokenType.RETURN)) return returnStatement();
-        if(match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
-        if(match(TokenType.BREAK)) return breakStatement();
-        if(match(TokenType.CONTINUE)) return continueStatement();
-        return expressionStatement();
+        int ln = peek().ln;
+        switch(peek().type){
+            case FOR: advance(); return line(forStatement(), ln);
+            case IF: advance(); return line(ifStatement(), ln);
+            case WHILE: advance(); return line(whileStatement(), ln);
+            case PRINT: advance(); return line(printStatement(), ln);
+            case RETURN: advance(); return line(returnStatement(), ln);
+            case LEFT_BRACE: advance(); return line(new Stmt.Block(block()), ln);
+            case BREAK: advance(); return line(breakStatement(), ln);
+            case CONTINUE: advance(); return line(continueStatement(), ln);
+            default: return line(expressionStatement(), ln);
+        }
+    }
+    //records the line a statement starts on, for runtime tools like the profiler
+    private static Stmt line(Stmt stmt, int ln){
+        stmt.ln = ln;
+        return stmt;
     }
     private Stmt breakStatement(){
+        Token keyword = previous();
         consume(TokenType.SEMICOLON, "Expected ';' after break statement.");
-        return new Stmt.Break(previous());
+        return new Stmt.Break(keyword);
     }
     private Stmt continueStatement(){
-        consume(TokenType.SEMICOLON, "Expected ';' after break statement.");
-        return new Stmt.Break(previous());
+        Token keyword = previous();
+        consume(TokenType.SEMICOLON, "Expected ';' after continue statement.");
+        return new Stmt.Continue(keyword);
     }   
     private Stmt returnStatement(){
         Token keyword = previous();
@@ -67,11 +111,12 @@ public class Parser {
         return new Stmt.Return(keyword, val);
     }
     private Stmt forStatement(){
+        int ln = previous().ln;
         consume(TokenType.LEFT_PAREN, "Expected '(' after 'for'.");
         Stmt initializer = null;
         if(match(TokenType.SEMICOLON)) initializer = null;
-        else if(match(TokenType.VAR)) initializer = varDeclaration();
-        else initializer = expressionStatement();
+        else if(match(TokenType.VAR)) initializer = line(varDeclaration(), ln);
+        else initializer = line(expressionStatement(), ln);
         Expr condition = null;
         if(!check(TokenType.SEMICOLON)) condition = expression();
         consume(TokenType.SEMICOLON, "Expected ';' after loop condition");
@@ -79,14 +124,12 @@ public class Parser {
         if(!check(TokenType.RIGHT_PAREN)) increment = expression();
         consume(TokenType.RIGHT_PAREN, "Expected closing ')' after 'for' clause.");
         Stmt body = statement();
-        //desugared for-loop: initializer -> (while-loop body -> increment)
-        if(increment != null){
-            body = new Stmt.Block(Arrays.asList(body, new Stmt.Expression(increment)));
-        }
+        //desugared for-loop: initializer -> while-loop with the increment run after each iteration,
+        //kept out of the body so that continue still reaches it
         if(condition == null){
             condition = new Expr.Literal(true);
         }
-        body = new Stmt.While(condition, body);
+        body = line(new Stmt.While(condition, body, increment), ln);
         if(initializer != null){
             body = new Stmt.Block(Arrays.asList(initializer, body));
         }
@@ -97,7 +140,7 @@ public class Parser {
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expected closing ')' after condition.");
         Stmt body = statement();
-        return new Stmt.While(condition, body);
+        return new Stmt.While(condition, body, null);
     }
     private Stmt printStatement(){
         Expr val = expression();
@@ -141,13 +184,10 @@ public class Parser {
         return new Stmt.Function(name, params, body);
     }
     private Expr expression(){
-        return assignment();
-    }
-    private Expr assignment(){
-        Expr lval = or();
+        Expr lval = binary(OR);
         if(match(TokenType.EQUAL)){
             Token equals = previous();
-            Expr rval = assignment();
+            Expr rval = expression();
             if(lval instanceof Expr.Variable){
                 Token name = ((Expr.Variable)lval).name;
                 return new Expr.Assign(name, rval);
@@ -157,74 +197,28 @@ public class Parser {
         //return parsed non-assignment expression
         return lval;
     }
-    private Expr or(){
-        Expr l = and();
-        while(match(TokenType.OR)){
-            Token op = previous();
-            Expr r = and();
-            l = new Expr.Logical(l, op, r);
-        }
-        return l;
-    }
-    private Expr and(){
-        Expr l = equality();
-        while(match(TokenType.AND)){
-            Token op = previous();
-            Expr r = equality();
-            l = new Expr.Logical(l, op, r);
-        }
-        return l;
-    }
-    private Expr equality(){ 
-        Expr expr = comparison();
-        while(match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)){
-            Token op = previous();
-            Expr r = comparison();
-            expr = new Expr.Binary(expr, op, r);
-        }
-        return expr;
-    }
-    private Expr comparison(){
-        Expr expr = term();
-        while(match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)){
-            Token op = previous();
-            Expr r = term();
-            expr = new Expr.Binary(expr, op, r);
+    //precedence climbing: a chain of operators binding at least as tightly as min, left to right.
+    //Only the right operands of tighter operators recurse, so nesting costs a few frames per parenthesis
+    private Expr binary(int min){
+        Expr l = unary();
+        for(;;){
+            TokenType type = peek().type;
+            int precedence = PRECEDENCE[type.ordinal()];
+            if(precedence < min) return l;
+            Token op = advance();
+            Expr r = binary(precedence + 1);
+            if(type == TokenType.OR || type == TokenType.AND) l = new Expr.Logical(l, op, r);
+            else l = new Expr.Binary(l, op, r);
         }
-        return expr;
-    }
-    private Expr term(){
-        Expr expr = factor();
-        while(match(TokenType.MINUS, TokenType.PLUS)){
-            Token op = previous();
-            Expr r = factor();
-            expr = new Expr.Binary(expr, op, r);
-        }
-        return expr;
-    }
-    private Expr factor(){
-        Expr expr = unary();
-        while(match(TokenType.SLASH, TokenType.STAR)){
-            Token op = previous();
-            Expr r = unary();
-            expr = new Expr.Binary(expr, op, r);
-        }
-        return expr;
     }
     private Expr unary(){
-        if(match(TokenType.BANG, TokenType.MINUS)){
-            Token op = previous();
+        if(check(TokenType.BANG) || check(TokenType.MINUS)){
+            Token op = advance();
             Expr r = unary();
             return new Expr.Unary(op, r);
         }
-        return call();
-    }
-    private Expr call(){
         Expr expr = primary();
-        while(true){
-            if(match(TokenType.LEFT_PAREN)) expr = finishCall(expr);
-            else break;
-        }
+        while(match(TokenType.LEFT_PAREN)) expr = finishCall(expr);
         return expr;
     }
     private Expr finishCall(Expr callee){
@@ -239,45 +233,47 @@ public class Parser {
         return new Expr.Call(callee, paren, args);
     }
     private Expr primary(){
-        if(match(TokenType.FALSE)) return new Expr.Literal(false);
-        if(match(TokenType.TRUE)) return new Expr.Literal(true);
-        if(match(TokenType.NIL)) return new Expr.Literal(null);
-        if(match(TokenType.NUMBER, TokenType.STRING)){
-            return new Expr.Literal(previous().literal);
-        }
-        if(match(TokenType.IDENTIFIER)) return new Expr.Variable(previous());
-        if(match(TokenType.LEFT_PAREN)){
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
-        throw error(peek(), "Expect expression");
-    }
-    private boolean match(TokenType... types){
-        for(TokenType type: types){
-            if(check(type)){
+        switch(peek().type){
+            case FALSE: advance(); return new Expr.Literal(false);
+            case TRUE: advance(); return new Expr.Literal(true);
+            case NIL: advance(); return new Expr.Literal(null);
+            case NUMBER:
+            case STRING:
+                return new Expr.Literal(advance().literal);
+            case IDENTIFIER: return new Expr.Variable(advance());
+            case LEFT_PAREN:
                 advance();
-                return true;
-            }
+                Expr expr = expression();
+                consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            default:
+                throw error(peek(), "Expect expression");
         }
-        return false;
+    }
+    private boolean match(TokenType type){
+        if(!check(type)) return false;
+        advance();
+        return true;
     }
     private boolean check(TokenType type){
         if(isAtEnd()) return false;
         return peek().type == type;
     }
     private Token advance(){
-        if(!isAtEnd()) curr++;
+        if(!isAtEnd()){
+            prev = curr;
+            curr = tokens.next();
+        }
         return previous();
     }
     private boolean isAtEnd(){
         return peek().type == TokenType.EOF;
     }
     private Token peek(){
-        return tokens.get(curr);
+        return curr;
     }
     private Token previous(){
-        return tokens.get(curr-1);
+        return prev;
     }
     private Token consume(TokenType type, String msg){
         if(check(type)) return advance();
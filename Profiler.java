@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+//profiler behind --profile. Calls are counted: every call made by the interpreter moves down a tree
+//of call sites, one node per function called from a line under a given chain of callers, and counts
+//there. Times and allocations are sampled: a background thread periodically charges the elapsed time
+//to the call on top of the stack, its function and its line, and as inclusive time to every function
+//and line below, and the bytes allocated since to that line and function. Reading the clock on every
+//call and return would cost more than a short call itself.
+class Profiler {
+    private static class Function{
+        final int id;
+        final String name;
+        //calls are only added up from the call sites for the report
+        long calls, inclusiveNanos, exclusiveNanos, allocatedBytes;
+        //the last sample that charged inclusive time, which a recursive function only gets once
+        long sampled = -1;
+        Function(int id, String name){
+            this.id = id;
+            this.name = name;
+        }
+    }
+    //a function called from one line through one particular chain of callers
+    private static class CallNode{
+        final Object key;
+        final Function function;
+        final int callLine;
+        final CallNode parent;
+        final Map<Long, CallNode> children = new HashMap<>();
+        //the child entered last, which recursion and loops ask for again and again
+        CallNode last = null;
+        long calls, exclusiveNanos;
+        CallNode(Object key, Function function, int callLine, CallNode parent){
+            this.key = key;
+            this.function = function;
+            this.callLine = callLine;
+            this.parent = parent;
+        }
+    }
+    private static final long SAMPLE_INTERVAL_MILLIS = 1;
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    private final Map<Object, Function> functions = new IdentityHashMap<>();
+    private final Function script = new Function(0, "<script>");
+    private final CallNode root = new CallNode(null, script, 0, null);
+    //the calls that haven't returned, the script at the bottom
+    private CallNode[] stack = new CallNode[64];
+    private int depth = 0;
+    //line of the statement being executed, written by the interpreter and read by the sampler
+    int line = 0;
+    //sampled time, time with the line anywhere on the stack and allocations, owned by the sampler thread
+    private long[] lineSelfNanos = new long[64], lineTotalNanos = new long[64], lineAllocated = new long[64];
+    private Thread sampler;
+    private volatile boolean sampling;
+
+    //starts profiling the current thread, which is the one that runs the script
+    void start(){
+        Thread interpreter = Thread.currentThread();
+        script.calls = 1;
+        stack[depth++] = root;
+        sampling = true;
+        sampler = new Thread(() -> sample(interpreter.getId()), "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+    void stop(){
+        sampling = false;
+        try{
+            sampler.join();
+        } catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        //a runtime error can leave calls that never returned
+        depth = 0;
+    }
+
+    void enter(LoxCallable callee, int callLine){
+        //functions are told apart by declaration, so all closures made from one count as the same function
+        Object key = callee instanceof LoxFunction ? ((LoxFunction)callee).declaration() : callee;
+        CallNode parent = stack[depth-1], node = parent.last;
+        if(node == null || node.key != key || node.callLine != callLine) node = child(parent, key, callee, callLine);
+        node.calls++;
+        stack[depth++] = node;
+    }
+    //a node sits as deep in the tree as on the stack, so only a new one can need a bigger stack
+    private CallNode child(CallNode parent, Object key, LoxCallable callee, int callLine){
+        if(depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+        Function function = functions.get(key);
+        if(function == null){
+            function = new Function(functions.size() + 1, name(callee));
+            functions.put(key, function);
+        }
+        Long site = (long)function.id << 32 | callLine;
+        CallNode child = parent.children.get(site);
+        if(child == null){
+            child = new CallNode(key, function, callLine, parent);
+            parent.children.put(site, child);
+        }
+        parent.last = child;
+        return child;
+    }
+    void exit(){
+        line = stack[--depth].callLine;
+    }
+    //a tail call replaces the call on top of the stack, made from the same line
+    void tailCall(LoxCallable callee){
+        int callLine = stack[depth-1].callLine;
+        exit();
+        enter(callee, callLine);
+    }
+    //names go into collapsed stacks, where they can't contain spaces or semicolons
+    private static String name(LoxCallable callee){
+        if(!(callee instanceof LoxFunction)) return "<native>";
+        Token name = ((LoxFunction)callee).declaration().name;
+        return name.lexeme + ":" + name.ln;
+    }
+
+    private void sample(long interpreter){
+        long last = System.nanoTime(), lastAllocated = threads.getThreadAllocatedBytes(interpreter);
+        List<Integer> lines = new ArrayList<>();
+        for(long samples = 0; sampling; samples++){
+            try{
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            } catch(InterruptedException e){
+                return;
+            }
+            long now = System.nanoTime(), allocated = threads.getThreadAllocatedBytes(interpreter);
+            long elapsed = now - last, allocatedSince = allocated - lastAllocated;
+            last = now;
+            lastAllocated = allocated;
+            //the stack is read while the interpreter changes it, so a sample can be slightly off
+            lines.clear();
+            int current = line;
+            lines.add(current);
+            CallNode[] nodes = stack;
+            int top = Math.min(depth, nodes.length) - 1;
+            if(top >= 0 && nodes[top] != null){
+                CallNode node = nodes[top];
+                node.exclusiveNanos += elapsed;
+                node.function.exclusiveNanos += elapsed;
+                node.function.allocatedBytes += allocatedSince;
+            }
+            for(int i = top; i >= 0; i--){
+                CallNode node = nodes[i];
+                if(node == null) continue;
+                if(node.function.sampled != samples){
+                    node.function.sampled = samples;
+                    node.function.inclusiveNanos += elapsed;
+                }
+                if(i > 0 && !lines.contains(node.callLine)) lines.add(node.callLine);
+            }
+            growLines(lines);
+            lineSelfNanos[current] += elapsed;
+            lineAllocated[current] += allocatedSince;
+            for(int ln: lines) lineTotalNanos[ln] += elapsed;
+        }
+    }
+    private void growLines(List<Integer> lines){
+        int max = 0;
+        for(int ln: lines) max = Math.max(max, ln);
+        if(max < lineSelfNanos.length) return;
+        int size = Math.max(max + 1, lineSelfNanos.length * 2);
+        lineSelfNanos = Arrays.copyOf(lineSelfNanos, size);
+        lineTotalNanos = Arrays.copyOf(lineTotalNanos, size);
+        lineAllocated = Arrays.copyOf(lineAllocated, size);
+    }
+
+    void report(PrintStream out){
+        long[] lineCalls = new long[lineSelfNanos.length];
+        for(Function function: functions.values()) function.calls = 0;
+        lineCalls = countCalls(root, lineCalls);
+        List<Function> all = new ArrayList<>(functions.values());
+        all.add(script);
+        all.sort((a, b) -> Long.compare(b.exclusiveNanos, a.exclusiveNanos));
+        out.printf("%-24s %10s %14s %14s %14s%n", "function", "calls", "inclusive ms", "exclusive ms", "allocated KB");
+        for(Function function: all){
+            out.printf("%-24s %10d %14.2f %14.2f %14d%n", function.name, function.calls,
+                function.inclusiveNanos / 1e6, function.exclusiveNanos / 1e6, function.allocatedBytes / 1024);
+        }
+        out.println();
+        out.printf("%-8s %10s %14s %14s %14s%n", "line", "calls", "self ms", "total ms", "allocated KB");
+        int lines = Math.max(lineCalls.length, lineSelfNanos.length);
+        List<Integer> order = new ArrayList<>();
+        for(int ln = 1; ln < lines; ln++){
+            if(at(lineCalls, ln) != 0 || at(lineTotalNanos, ln) != 0) order.add(ln);
+        }
+        order.sort((a, b) -> Long.compare(at(lineSelfNanos, b), at(lineSelfNanos, a)));
+        for(int ln: order){
+            out.printf("%-8d %10d %14.2f %14.2f %14d%n", ln, at(lineCalls, ln),
+                at(lineSelfNanos, ln) / 1e6, at(lineTotalNanos, ln) / 1e6, at(lineAllocated, ln) / 1024);
+        }
+        out.println("(times and allocations are sampled every " + SAMPLE_INTERVAL_MILLIS + " ms, calls are counted)");
+    }
+    //adds the calls made from each call site below node to its function and line
+    private long[] countCalls(CallNode node, long[] lineCalls){
+        for(CallNode child: node.children.values()){
+            child.function.calls += child.calls;
+            if(child.callLine >= lineCalls.length){
+                lineCalls = Arrays.copyOf(lineCalls, Math.max(child.callLine + 1, lineCalls.length * 2));
+            }
+            lineCalls[child.callLine] += child.calls;
+            lineCalls = countCalls(child, lineCalls);
+        }
+        return lineCalls;
+    }
+    private static long at(long[] counts, int ln){
+        return ln < counts.length ? counts[ln] : 0;
+    }
+    //one line per call stack with the exclusive time spent in it in microseconds, the format
+    //flamegraph.pl and most other flame graph tools read. Calls of one function from different lines
+    //have lines of their own, which these tools add up
+    void writeCollapsed(Path path) throws IOException{
+        try(Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)){
+            writeCollapsed(root, out);
+        }
+    }
+    private void writeCollapsed(CallNode node, Writer out) throws IOException{
+        long micros = node.exclusiveNanos / 1000;
+        if(micros > 0){
+            StringBuilder path = new StringBuilder(node.function.name);
+            for(CallNode caller = node.parent; caller != null; caller = caller.parent){
+                path.insert(0, caller.function.name + ";");
+            }
+            out.write(path + " " + micros + "\n");
+        }
+        for(CallNode child: node.children.values()) writeCollapsed(child, out);
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,29 +10,85 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
         NONE, 
         FUNCTION
     }
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-    private FunctionType currFn = FunctionType.NONE; 
-    Resolver(Interpreter interpreter){
-        this.interpreter = interpreter;
+    //a declared local: its slot in the frame, whether its initializer is done and whether a nested
+    //function captures it, in which case its declaration and every access from its own frame use a cell
+    private static class Local{
+        final int slot;
+        final Frame frame;
+        final Stmt declaration;
+        //its name, the scope depth it was declared at and the local of the same name it hides
+        final int symbol, depth;
+        final Local shadowed;
+        boolean defined = false;
+        boolean captured = false;
+        final List<Expr> uses = new ArrayList<>();
+        Local(int slot, Frame frame, Stmt declaration, int symbol, int depth, Local shadowed){
+            this.slot = slot;
+            this.frame = frame;
+            this.declaration = declaration;
+            this.symbol = symbol;
+            this.depth = depth;
+            this.shadowed = shadowed;
+        }
+    }
+    //the slots of a function's frame, or of a top-level block's. Sibling scopes reuse slots,
+    //so size is the most that are in use at once
+    private static class Frame{
+        final Frame enclosing;
+        int next = 0, size = 0;
+        //where each upvalue comes from, as in Stmt.Function.upvalues
+        final List<Integer> upvalues = new ArrayList<>();
+        final Map<Local, Integer> upvalueIndex = new HashMap<>();
+        final List<CountingLoop> countingLoops = new ArrayList<>();
+        Frame(Frame enclosing){
+            this.enclosing = enclosing;
+        }
     }
+    //a for loop shaped for(...; i < n; i = i + step), whose body assigns neither the counter nor
+    //the bound, a number or a local. It runs with an unboxed counter unless one of them gets captured
+    private static class CountingLoop{
+        final Stmt.While loop;
+        final Local counter, bound;
+        CountingLoop(Stmt.While loop, Local counter, Local bound){
+            this.loop = loop;
+            this.counter = counter;
+            this.bound = bound;
+        }
+    }
+    //the locals each open scope declared, and the innermost visible local of each interned name
+    private final Stack<List<Local>> scopes = new Stack<>();
+    private Local[] visible = new Local[64];
+    //null in top-level code outside any block
+    private Frame frame = null;
+    private FunctionType currFn = FunctionType.NONE; 
+    //loops around the current statement within the current function, break and continue need one
+    private int loopDepth = 0;
     @Override
     public Void visitBlockStmt(Stmt.Block stmt){
+        //a block in top-level code gets a frame of its own, nested blocks share their enclosing frame
+        boolean topLevel = frame == null;
+        if(topLevel) frame = new Frame(null);
         beginScope();
         resolve(stmt.statements);
         endScope();
+        stmt.frameSize = topLevel ? frame.size : 0;
+        if(topLevel) endFrame();
         return null;
     }
     @Override
     public Void visitVarStmt(Stmt.Var stmt){
-        declare(stmt.name);
+        Local local = declare(stmt.name, stmt);
+        stmt.slot = local != null ? local.slot : -1;
+        stmt.captured = false;
         if(stmt.initializer != null) resolve(stmt.initializer);
         define(stmt.name);
         return null;
     }
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt){
-        declare(stmt.name);
+        Local local = declare(stmt.name, stmt);
+        stmt.slot = local != null ? local.slot : -1;
+        stmt.captured = false;
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -54,10 +112,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
     @Override
     public Void visitBreakStmt(Stmt.Break stmt){
+        if(loopDepth == 0) Lox.error(stmt.name, "Can't use 'break' outside of a loop.");
         return null;
     }
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt){
+        if(loopDepth == 0) Lox.error(stmt.keyword, "Can't use 'continue' outside of a loop.");
         return null;
     }
     @Override
@@ -66,17 +126,88 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
             Lox.error(stmt.keyword, "Cant return from top-level code.");
         }
         if(stmt.value != null) resolve(stmt.value);
+        //nothing is left to do in this function after the call, so its frame can be dropped first
+        stmt.tailCall = stmt.value instanceof Expr.Call;
         return null;
     }
     @Override
     public Void visitWhileStmt(Stmt.While stmt){
+        //a loop in top-level code takes one frame for all its iterations, so a body block that
+        //declares locals reuses their slots instead of pushing a frame every time around
+        boolean topLevel = frame == null;
+        if(topLevel) frame = new Frame(null);
         resolve(stmt.condition);
+        stmt.counter = -1;
+        Local counter = counter(stmt), bound = counter != null ? bound(stmt) : null;
+        int counterUses = counter != null ? counter.uses.size() : 0;
+        int boundUses = bound != null ? bound.uses.size() : 0;
+        loopDepth++;
         resolve(stmt.body);
+        loopDepth--;
+        boolean counterRead = counter != null && reads(counter, counterUses);
+        boolean counterAssigned = counter != null && assigns(counter, counterUses);
+        if(stmt.increment != null) resolve(stmt.increment);
+        if(counter != null && !counterAssigned && (bound == null || !assigns(bound, boundUses))){
+            stmt.counter = counter.slot;
+            stmt.counterRead = counterRead;
+            stmt.step = step(stmt);
+            frame.countingLoops.add(new CountingLoop(stmt, counter, bound));
+        }
+        stmt.frameSize = topLevel ? frame.size : 0;
+        if(topLevel) endFrame();
         return null;
     }
+    //the local counted by a loop shaped like a counting loop, before looking at its body
+    private Local counter(Stmt.While stmt){
+        if(frame == null || !(stmt.condition instanceof Expr.Binary) || !(stmt.increment instanceof Expr.Assign)) return null;
+        Expr.Binary condition = (Expr.Binary)stmt.condition;
+        switch(condition.op.type){
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL: break;
+            default: return null;
+        }
+        if(!(condition.l instanceof Expr.Variable)) return null;
+        Token name = ((Expr.Variable)condition.l).name;
+        Expr.Assign increment = (Expr.Assign)stmt.increment;
+        if(increment.name.symbol != name.symbol || !(increment.value instanceof Expr.Binary)) return null;
+        Expr.Binary step = (Expr.Binary)increment.value;
+        if(step.op.type != TokenType.PLUS && step.op.type != TokenType.MINUS) return null;
+        if(!(step.l instanceof Expr.Variable) || ((Expr.Variable)step.l).name.symbol != name.symbol) return null;
+        if(!(step.r instanceof Expr.Literal) || !(((Expr.Literal)step.r).val instanceof Double)) return null;
+        Expr bound = condition.r;
+        if(!(bound instanceof Expr.Variable) && !(bound instanceof Expr.Literal && ((Expr.Literal)bound).val instanceof Double)) return null;
+        if(bound instanceof Expr.Variable && lookup(((Expr.Variable)bound).name) == null) return null;
+        return lookup(name);
+    }
+    //null for a number bound
+    private Local bound(Stmt.While stmt){
+        Expr bound = ((Expr.Binary)stmt.condition).r;
+        return bound instanceof Expr.Variable ? lookup(((Expr.Variable)bound).name) : null;
+    }
+    private static double step(Stmt.While stmt){
+        Expr.Binary step = (Expr.Binary)((Expr.Assign)stmt.increment).value;
+        double val = (double)((Expr.Literal)step.r).val;
+        return step.op.type == TokenType.PLUS ? val : -val;
+    }
+    //whether the uses of a local after the first from are reads or assignments
+    private static boolean reads(Local local, int from){
+        for(Expr use: local.uses.subList(from, local.uses.size())) if(use instanceof Expr.Variable) return true;
+        return false;
+    }
+    private static boolean assigns(Local local, int from){
+        for(Expr use: local.uses.subList(from, local.uses.size())) if(use instanceof Expr.Assign) return true;
+        return false;
+    }
+    //once a frame is done it is known which of its locals nested functions captured
+    private void endFrame(){
+        for(CountingLoop loop: frame.countingLoops){
+            if(loop.counter.captured || (loop.bound != null && loop.bound.captured)) loop.loop.counter = -1;
+        }
+        frame = frame.enclosing;
+    }
     @Override
     public Void visitVariableExpr(Expr.Variable expr){
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
+        Local local = innermost(expr.name);
+        if(local != null && local.depth == scopes.size() && !local.defined){
             Lox.error(expr.name, "Can't read local variable in its own initializer");
         } 
         resolveLocal(expr, expr.name);
@@ -133,39 +264,109 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>{
     }
     private void resolveFunction(Stmt.Function fn, FunctionType type){
         FunctionType enclosingFn = currFn;
+        int enclosingLoops = loopDepth;
         currFn = type;
+        //a function body can't break out of a loop it is declared in
+        loopDepth = 0;
+        frame = new Frame(frame);
         beginScope();
+        //parameters take the first slots, where the call puts the arguments
+        List<Local> params = new ArrayList<>();
         for(Token param: fn.params){
-            declare(param);
+            params.add(declare(param, null));
             define(param);
         }
         resolve(fn.body);
+        List<Integer> cellParams = new ArrayList<>();
+        for(Local param: params){
+            if(param != null && param.captured) cellParams.add(param.slot);
+        }
         endScope();
+        fn.frameSize = frame.size;
+        fn.cellParams = toArray(cellParams);
+        fn.upvalues = toArray(frame.upvalues);
+        endFrame();
         currFn = enclosingFn;
+        loopDepth = enclosingLoops;
+    }
+    private static int[] toArray(List<Integer> list){
+        int[] array = new int[list.size()];
+        for(int i = 0; i < array.length; i++) array[i] = list.get(i);
+        return array;
     }
     private void beginScope(){
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new ArrayList<Local>());
     }
     private void endScope(){
-        scopes.pop();
+        List<Local> scope = scopes.pop();
+        for(Local local: scope){
+            visible[local.symbol] = local.shadowed;
+            if(!local.captured) continue;
+            for(Expr use: local.uses) access(use, VariableAccess.CELL, local.slot);
+            if(local.declaration instanceof Stmt.Var) ((Stmt.Var)local.declaration).captured = true;
+            else if(local.declaration instanceof Stmt.Function) ((Stmt.Function)local.declaration).captured = true;
+        }
+        //the scope's slots are free again for the next sibling scope
+        frame.next -= scope.size();
     }
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
-        if(scopes.peek().containsKey(name.lexeme)){
+    //null for globals, which aren't given slots
+    private Local declare(Token name, Stmt declaration){
+        if(scopes.isEmpty()) return null;
+        Local shadowed = innermost(name);
+        if(shadowed != null && shadowed.depth == scopes.size()){
             Lox.error(name, "Cannot redeclare multiple variables with same name in the scope.");
+            return null;
         }
-        scopes.peek().put(name.lexeme, false);
+        Local local = new Local(frame.next++, frame, declaration, name.symbol, scopes.size(), shadowed);
+        frame.size = Math.max(frame.size, frame.next);
+        scopes.peek().add(local);
+        if(name.symbol >= visible.length) visible = Arrays.copyOf(visible, Math.max(visible.length * 2, name.symbol + 1));
+        visible[name.symbol] = local;
+        return local;
     }
     private void define(Token name){
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        visible[name.symbol].defined = true;
+    }
+    //the innermost local of that name declared in the current frame, null for anything else
+    private Local lookup(Token name){
+        Local local = innermost(name);
+        return local != null && local.frame == frame ? local : null;
     }
+    private Local innermost(Token name){
+        return name.symbol < visible.length ? visible[name.symbol] : null;
+    }
+    //innermost declaration wins; locals of an enclosing frame are reached through upvalues
     private void resolveLocal(Expr expr, Token name){
-        for(int i = scopes.size()-1; i >= 0; i--){
-            if(scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr, scopes.size()-1-i);
-                return;
-            }
+        Local local = innermost(name);
+        if(local == null) access(expr, VariableAccess.GLOBAL, 0);
+        else if(local.frame == frame){
+            local.uses.add(expr);
+            access(expr, local.captured ? VariableAccess.CELL : VariableAccess.LOCAL, local.slot);
+        }
+        else{
+            local.captured = true;
+            access(expr, VariableAccess.UPVALUE, upvalue(frame, local));
+        }
+    }
+    //index of the local among the frame's upvalues, threading it through every frame in between
+    private int upvalue(Frame frame, Local local){
+        Integer index = frame.upvalueIndex.get(local);
+        if(index != null) return index;
+        int source = frame.enclosing == local.frame ? local.slot : -1 - upvalue(frame.enclosing, local);
+        frame.upvalues.add(source);
+        index = frame.upvalues.size() - 1;
+        frame.upvalueIndex.put(local, index);
+        return index;
+    }
+    private static void access(Expr expr, byte access, int slot){
+        if(expr instanceof Expr.Variable){
+            ((Expr.Variable)expr).access = access;
+            ((Expr.Variable)expr).slot = slot;
+        }
+        else{
+            ((Expr.Assign)expr).access = access;
+            ((Expr.Assign)expr).slot = slot;
         }
     }
 }
\ No newline at end of file
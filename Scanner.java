@@ -1,144 +1,185 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
+//scans UTF-8 source a token at a time, so the parser can take tokens as it goes instead of a list of
+//all of them. Everything outside string literals and comments is ASCII, so only string literals are
+//decoded; a file can be scanned straight from a memory-mapped buffer without a String copy of it.
+//Comments, string literals and runs of spaces are skipped 8 bytes at a time, testing every byte of
+//a long at once (SWAR); the last few bytes of the source go one at a time. Punctuation and keywords
+//share their type's lexeme and names are interned, so only literals make new strings.
 public class Scanner {
-    private static final Map<String, TokenType> keywords; //keyword lexeme -> type
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("break", TokenType.BREAK);
-        keywords.put("continue", TokenType.CONTINUE);
-    }
-    private final String src;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final long ONES = 0x0101010101010101L, LOWS = 0x7f7f7f7f7f7f7f7fL, HIGHS = 0x8080808080808080L;
+    private final ByteBuffer src;
+    private final int length;
     private int start = 0, curr = 0, ln = 1;
     Scanner(String src){
-        this.src = src;
+        this(ByteBuffer.wrap(src.getBytes(StandardCharsets.UTF_8)));
+    }
+    //reads the buffer from its position to its limit, which it leaves alone
+    Scanner(ByteBuffer src){
+        //the first byte of a word is its lowest, where numberOfTrailingZeros starts counting
+        this.src = src.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.length = this.src.limit();
     }
 
     List<Token> scanTokens(){
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do{
+            token = next();
+            tokens.add(token);
+        } while(token.type != TokenType.EOF);
+        return tokens;
+    }
+    //the tokens one at a time, ending with EOF
+    Iterator<Token> tokens(){
+        return new Iterator<Token>(){
+            private boolean done = false;
+            @Override
+            public boolean hasNext(){
+                return !done;
+            }
+            @Override
+            public Token next(){
+                Token token = Scanner.this.next();
+                done = token.type == TokenType.EOF;
+                return token;
+            }
+        };
+    }
+    //EOF once the source is used up
+    Token next(){
         while(!isAtEnd()){
             start = curr;
-            scanToken();
+            Token token = scanToken();
+            if(token != null) return token;
         }
-        tokens.add(new Token(TokenType.EOF, "", null, ln));
-        return tokens;
+        return new Token(TokenType.EOF, TokenType.EOF.lexeme, null, ln);
     }
 
     private boolean isAtEnd(){
-        return curr >= src.length();
+        return curr >= length;
     }
 
-    private void scanToken(){
+    //null for whitespace, comments and errors
+    private Token scanToken(){
         char ch = advance();
         switch(ch){
-            case '(': addToken(TokenType.LEFT_PAREN); break;
-            case ')': addToken(TokenType.RIGHT_PAREN); break;
-            case '{': addToken(TokenType.LEFT_BRACE); break;
-            case '}': addToken(TokenType.RIGHT_BRACE); break;
-            case ',': addToken(TokenType.COMMA); break;
-            case '.': addToken(TokenType.DOT); break;
-            case '-': addToken(TokenType.MINUS); break;
-            case '+': addToken(TokenType.PLUS); break;
-            case ';': addToken(TokenType.SEMICOLON); break;
-            case '*': addToken(TokenType.STAR); break;
-            case '!': addToken(match('=')? TokenType.BANG_EQUAL : TokenType.BANG); break;
-            case '=': addToken(match('=')? TokenType.EQUAL_EQUAL : TokenType.EQUAL); break;
-            case '<': addToken(match('=')? TokenType.LESS_EQUAL : TokenType.LESS); break;
-            case '>': addToken(match('=')? TokenType.GREATER_EQUAL : TokenType.GREATER); break;
+            case '(': return token(TokenType.LEFT_PAREN);
+            case ')': return token(TokenType.RIGHT_PAREN);
+            case '{': return token(TokenType.LEFT_BRACE);
+            case '}': return token(TokenType.RIGHT_BRACE);
+            case ',': return token(TokenType.COMMA);
+            case '.': return token(TokenType.DOT);
+            case '-': return token(TokenType.MINUS);
+            case '+': return token(TokenType.PLUS);
+            case ';': return token(TokenType.SEMICOLON);
+            case '*': return token(TokenType.STAR);
+            case '!': return token(match('=')? TokenType.BANG_EQUAL : TokenType.BANG);
+            case '=': return token(match('=')? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
+            case '<': return token(match('=')? TokenType.LESS_EQUAL : TokenType.LESS);
+            case '>': return token(match('=')? TokenType.GREATER_EQUAL : TokenType.GREATER);
             case '/':
                 if(match('/')){
-                    while(peek() != '\n' && !isAtEnd()) advance();
+                    skipComment();
+                    return null;
                 }
-                else addToken(TokenType.SLASH);
-                break;
+                return token(TokenType.SLASH);
             //ignore whitespace and other similar characters
             case ' ':
+                skipSpaces();
+                return null;
             case '\r':
             case '\t':
-                break;
-            case '\n': ln++; break;
-            case '"': string(); break;
+                return null;
+            case '\n': ln++; return null;
+            case '"': return string();
             default:
-                if(isDigit(ch)) number();
-                else if(isAlpha(ch)) identifier();
-                else Lox.error(ln, "Unexpected character."); break;
+                if(isDigit(ch)) return number();
+                if(isAlpha(ch)) return identifier();
+                //the rest of a multi-byte character belongs to the same error
+                while(ch >= 0x80 && !isAtEnd() && (src.get(curr) & 0xc0) == 0x80) curr++;
+                Lox.error(ln, "Unexpected character.");
+                return null;
         }
     }
 
     private char advance(){
-        return src.charAt(curr++);
+        return (char)(src.get(curr++) & 0xff);
     }
 
-    private void addToken(TokenType type){
-        addToken(type, null);
+    private Token token(TokenType type){
+        return new Token(type, type.lexeme, null, ln);
     }
 
-    private void addToken(TokenType type, Object literal){
-        String txt = src.substring(start, curr);
-        tokens.add(new Token(type, txt, literal, ln));
+    private String text(int from, int to, Charset charset){
+        if(src.hasArray()) return new String(src.array(), src.arrayOffset() + from, to - from, charset);
+        byte[] bytes = new byte[to - from];
+        src.get(from, bytes);
+        return new String(bytes, charset);
     }
 
     private boolean match(char expected){
         if(isAtEnd()) return false;
-        if(src.charAt(curr) != expected) return false;
+        if(src.get(curr) != expected) return false;
         curr++;
         return true;
     }
 
     private char peek(){
         if(isAtEnd()) return '\0';
-        return src.charAt(curr);
+        return (char)(src.get(curr) & 0xff);
     }
 
-    private void string(){
+    private Token string(){
+        while(curr + 8 <= length){
+            long word = src.getLong(curr);
+            long found = equal(word, '"') | equal(word, '\n');
+            if(found == 0){
+                curr += 8;
+                continue;
+            }
+            curr += Long.numberOfTrailingZeros(found) >>> 3;
+            if(src.get(curr) == '"') break;
+            ln++;
+            curr++;
+        }
         while(peek() != '"' && !isAtEnd()){
             if(peek() == '\n') ln++;
             advance();
         }
         if(isAtEnd()){
             Lox.error(ln, "Unterminated string.");
-            return;
+            return null;
         }
         advance();  //consuming the closing quote
-        String val = src.substring(start+1, curr-1);
-        addToken(TokenType.STRING, val);
+        String txt = text(start, curr, StandardCharsets.UTF_8);
+        return new Token(TokenType.STRING, txt, txt.substring(1, txt.length()-1), ln);
     }
 
     private boolean isDigit(char ch){
         return ch >= '0' && ch <= '9';
     }
 
-    private void number(){
+    private Token number(){
         while(isDigit(peek())) advance();
         //looking for the fractional part
         if(peek() == '.' && isDigit(peekNext())){
             advance();
             while(isDigit(peek())) advance();
         }
-        addToken(TokenType.NUMBER, Double.parseDouble(src.substring(start, curr)));
+        String txt = text(start, curr, StandardCharsets.ISO_8859_1);
+        return new Token(TokenType.NUMBER, txt, Double.parseDouble(txt), ln);
     }
 
     private char peekNext(){
-        if(curr+1 >= src.length()) return '\0';
-        return src.charAt(curr+1);
+        if(curr+1 >= length) return '\0';
+        return (char)(src.get(curr+1) & 0xff);
     }
 
     private boolean isAlpha(char ch){
@@ -149,11 +190,86 @@ public class Scanner {
         return isAlpha(ch) || isDigit(ch);
     }
 
-    private void identifier(){
-        while(isAlphaNumeric(peek())) advance();
-        String txt = src.substring(start, curr);
-        TokenType type = keywords.get(txt);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+    private Token identifier(){
+        int hash = src.get(start);
+        while(isAlphaNumeric(peek())) hash = 31 * hash + advance();
+        TokenType type = keyword();
+        if(type != null) return token(type);
+        Symbols.Symbol symbol = Symbols.intern(src, start, curr, hash);
+        return new Token(TokenType.IDENTIFIER, symbol.name, null, ln, symbol.id);
+    }
+    //by length, then by the letters that tell keywords of the same length apart
+    private TokenType keyword(){
+        char first = (char)src.get(start);
+        switch(curr - start){
+            case 2:
+                if(first == 'i') return keyword(TokenType.IF);
+                if(first == 'o') return keyword(TokenType.OR);
+                return null;
+            case 3:
+                switch(first){
+                    case 'a': return keyword(TokenType.AND);
+                    case 'f': return keyword(src.get(start+1) == 'u' ? TokenType.FUN : TokenType.FOR);
+                    case 'n': return keyword(TokenType.NIL);
+                    case 'v': return keyword(TokenType.VAR);
+                }
+                return null;
+            case 4:
+                if(first == 'e') return keyword(TokenType.ELSE);
+                if(first == 't') return keyword(src.get(start+1) == 'h' ? TokenType.THIS : TokenType.TRUE);
+                return null;
+            case 5:
+                switch(first){
+                    case 'b': return keyword(TokenType.BREAK);
+                    case 'c': return keyword(TokenType.CLASS);
+                    case 'f': return keyword(TokenType.FALSE);
+                    case 'p': return keyword(TokenType.PRINT);
+                    case 's': return keyword(TokenType.SUPER);
+                    case 'w': return keyword(TokenType.WHILE);
+                }
+                return null;
+            case 6:
+                return first == 'r' ? keyword(TokenType.RETURN) : null;
+            case 8:
+                return first == 'c' ? keyword(TokenType.CONTINUE) : null;
+        }
+        return null;
+    }
+    //type if the current lexeme, already known to be as long as its keyword, is that keyword
+    private TokenType keyword(TokenType type){
+        String lexeme = type.lexeme;
+        for(int i = 1; i < lexeme.length(); i++) if(src.get(start + i) != lexeme.charAt(i)) return null;
+        return type;
+    }
+
+    //the runs skipped 8 bytes at a time, each finishing byte by byte
+    private void skipComment(){
+        while(curr + 8 <= length){
+            long found = equal(src.getLong(curr), '\n');
+            if(found != 0){
+                curr += Long.numberOfTrailingZeros(found) >>> 3;
+                return;
+            }
+            curr += 8;
+        }
+        while(peek() != '\n' && !isAtEnd()) advance();
+    }
+    private void skipSpaces(){
+        //a single space between tokens is the usual case
+        if(peek() != ' ') return;
+        while(curr + 8 <= length){
+            long other = ~equal(src.getLong(curr), ' ') & HIGHS;
+            if(other != 0){
+                curr += Long.numberOfTrailingZeros(other) >>> 3;
+                return;
+            }
+            curr += 8;
+        }
+        while(peek() == ' ') advance();
+    }
+    //sets the high bit of every byte of word equal to ch and clears the rest
+    private static long equal(long word, char ch){
+        long x = word ^ (ONES * ch);
+        return ~(((x & LOWS) + LOWS) | x | LOWS);
     }
 }
@@ -13,6 +13,8 @@ abstract class Stmt{
 		R visitContinueStmt(Continue stmt);
 	}
 	abstract <R> R accept(Visitor<R> visitor);
+	int ln;
+	int id;
 	static class Block extends Stmt{
 		Block(List<Stmt> statements){
 			this.statements = statements;
@@ -22,6 +24,7 @@ abstract class Stmt{
 			return visitor.visitBlockStmt(this);
 		}
 		final List<Stmt> statements;
+		int frameSize;
 	}
 	static class Expression extends Stmt{
 		Expression(Expr expr){
@@ -46,6 +49,14 @@ abstract class Stmt{
 		final Token name;
 		final List<Token> params;
 		final List<Stmt> body;
+		int slot = -1;
+		boolean captured;
+		int frameSize;
+		int[] cellParams;
+		int[] upvalues;
+		int calls;
+		boolean jitted;
+		CompiledFunction compiled;
 	}
 	static class If extends Stmt{
 		If(Expr condition, Stmt thenBranch, Stmt elseBranch){
@@ -82,6 +93,7 @@ abstract class Stmt{
 		}
 		final Token keyword;
 		final Expr value;
+		boolean tailCall;
 	}
 	static class Var extends Stmt{
 		Var(Token name , Expr initializer){
@@ -94,11 +106,14 @@ abstract class Stmt{
 		}
 		final Token name ;
 		final Expr initializer;
+		int slot = -1;
+		boolean captured;
 	}
 	static class While extends Stmt{
-		While(Expr condition, Stmt body){
+		While(Expr condition, Stmt body, Expr increment){
 			this.condition = condition;
 			this.body = body;
+			this.increment = increment;
 		}
 		@Override
 		<R> R accept(Visitor<R> visitor){
@@ -106,6 +121,14 @@ abstract class Stmt{
 		}
 		final Expr condition;
 		final Stmt body;
+		final Expr increment;
+		int frameSize;
+		int counter = -1;
+		double step;
+		boolean counterRead;
+		int iterations;
+		boolean jitted;
+		CompiledFunction compiled;
 	}
 	static class Break extends Stmt{
 		Break(Token name){
@@ -0,0 +1,81 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//identifier names interned into dense ids, so the resolver, globals and compiler index arrays by
+//name instead of hashing strings. One table serves every scanner in the process, which keeps ids
+//stable across the lines of a REPL session and across runs sharing an interpreter. The scanner
+//looks names up straight from the source bytes: a name becomes a String once, the first time it is seen.
+final class Symbols {
+    static final class Symbol {
+        final int id, hash;
+        final String name;
+        private final byte[] bytes;
+        private Symbol(int id, int hash, byte[] bytes){
+            this.id = id;
+            this.hash = hash;
+            this.bytes = bytes;
+            this.name = new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+    //open addressing, at most half full. Lookups don't lock: a symbol is immutable, so a racy read
+    //of a slot sees it either whole or not at all, and a miss is checked again under the lock
+    private static volatile Symbol[] table = new Symbol[1024];
+    private static Symbol[] byId = new Symbol[512];
+    private static int count = 0;
+
+    private Symbols(){}
+
+    //names are ASCII, see Scanner
+    static Symbol intern(String name){
+        byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        return intern(ByteBuffer.wrap(bytes), 0, bytes.length, name.hashCode());
+    }
+    //the bytes of src from from to to, whose hash the scanner works out as it reads them, the same as
+    //String.hashCode of the name
+    static Symbol intern(ByteBuffer src, int from, int to, int hash){
+        hash ^= hash >>> 16;
+        Symbol symbol = find(table, hash, src, from, to);
+        return symbol != null ? symbol : add(hash, src, from, to);
+    }
+    static synchronized String name(int id){
+        return byId[id].name;
+    }
+    private static Symbol find(Symbol[] table, int hash, ByteBuffer src, int from, int to){
+        int mask = table.length - 1;
+        for(int i = hash & mask; table[i] != null; i = (i + 1) & mask){
+            Symbol symbol = table[i];
+            if(symbol.hash == hash && matches(symbol.bytes, src, from, to)) return symbol;
+        }
+        return null;
+    }
+    private static synchronized Symbol add(int hash, ByteBuffer src, int from, int to){
+        Symbol symbol = find(table, hash, src, from, to);
+        if(symbol != null) return symbol;
+        byte[] bytes = new byte[to - from];
+        src.get(from, bytes);
+        symbol = new Symbol(count, hash, bytes);
+        if(count == byId.length) byId = Arrays.copyOf(byId, count * 2);
+        byId[count++] = symbol;
+        Symbol[] table = Symbols.table;
+        if(count * 2 > table.length){
+            //readers keep probing the old table until the new one is published
+            table = new Symbol[table.length * 2];
+            for(int i = 0; i < count - 1; i++) put(table, byId[i]);
+            put(table, symbol);
+            Symbols.table = table;
+        }
+        else put(table, symbol);
+        return symbol;
+    }
+    private static void put(Symbol[] table, Symbol symbol){
+        int mask = table.length - 1, i = symbol.hash & mask;
+        while(table[i] != null) i = (i + 1) & mask;
+        table[i] = symbol;
+    }
+    private static boolean matches(byte[] bytes, ByteBuffer src, int from, int to){
+        if(bytes.length != to - from) return false;
+        for(int i = 0; i < bytes.length; i++) if(bytes[i] != src.get(from + i)) return false;
+        return true;
+    }
+}
@@ -3,12 +3,18 @@ public class Token {
     final String lexeme;
     final Object literal;
     final int ln;
+    //the interned name of an identifier (see Symbols), -1 for other tokens
+    final int symbol;
 
     Token(TokenType type, String lexeme, Object literal, int ln){
+        this(type, lexeme, literal, ln, -1);
+    }
+    Token(TokenType type, String lexeme, Object literal, int ln, int symbol){
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.ln = ln;
+        this.symbol = symbol;
     }
     public String toString(){
         return type + " " + lexeme + " " + literal;
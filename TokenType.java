@@ -1,20 +1,27 @@
 enum TokenType{
     // single character tokens
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, 
-    COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, 
+    LEFT_PAREN("("), RIGHT_PAREN(")"), LEFT_BRACE("{"), RIGHT_BRACE("}"), 
+    COMMA(","), DOT("."), MINUS("-"), PLUS("+"), SEMICOLON(";"), SLASH("/"), STAR("*"), 
 
     // one or two character tokens
-    BANG, BANG_EQUAL,
-    EQUAL, EQUAL_EQUAL,
-    GREATER, GREATER_EQUAL, 
-    LESS, LESS_EQUAL,
+    BANG("!"), BANG_EQUAL("!="),
+    EQUAL("="), EQUAL_EQUAL("=="),
+    GREATER(">"), GREATER_EQUAL(">="), 
+    LESS("<"), LESS_EQUAL("<="),
     
     //literals
-    IDENTIFIER, STRING, NUMBER, 
+    IDENTIFIER(null), STRING(null), NUMBER(null), 
 
     //keywords
-    AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, 
-    SUPER, THIS, TRUE, VAR, WHILE, BREAK, CONTINUE,
+    AND("and"), CLASS("class"), ELSE("else"), FALSE("false"), FUN("fun"), FOR("for"), IF("if"), NIL("nil"),
+    OR("or"), PRINT("print"), RETURN("return"), SUPER("super"), THIS("this"), TRUE("true"), VAR("var"),
+    WHILE("while"), BREAK("break"), CONTINUE("continue"),
 
-    EOF
-}
\ No newline at end of file
+    EOF("");
+
+    //shared by every token of the type, null for the literals whose lexemes vary
+    final String lexeme;
+    TokenType(String lexeme){
+        this.lexeme = lexeme;
+    }
+}
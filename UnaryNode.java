@@ -0,0 +1,33 @@
+//self-specializing implementation of unary operators, see BinaryNode
+final class UnaryNode {
+    static final byte UNINITIALIZED = 0;
+    static final byte GENERIC = 1;
+    static final byte NUMBER_NEGATE = 2;
+    static final byte NOT = 3;
+
+    private UnaryNode(){}
+
+    static Object execute(Expr.Unary expr, Object r){
+        switch(expr.node){
+            case NUMBER_NEGATE:
+                if(r instanceof Double) return -(double)r;
+                expr.node = GENERIC;
+                break;
+            case NOT:
+                return !Interpreter.isTruthy(r);
+            case UNINITIALIZED:
+                if(expr.op.type == TokenType.BANG) expr.node = NOT;
+                else if(r instanceof Double) expr.node = NUMBER_NEGATE;
+                else expr.node = GENERIC;
+                return execute(expr, r);
+        }
+        switch(expr.op.type){
+            case BANG:
+                return !Interpreter.isTruthy(r);
+            case MINUS:
+                if(!(r instanceof Double)) throw new RuntimeError(expr.op, "Operand must be a number.");
+                return -(double)r;
+        }
+        return null;
+    }
+}
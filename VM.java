@@ -0,0 +1,428 @@
+import java.util.Arrays;
+
+//stack-based virtual machine running the bytecode produced by Compiler
+class VM {
+    static class Function{
+        final String name;
+        final int arity;
+        final Chunk chunk = new Chunk();
+        int upvalueCount = 0;
+        //deepest the function's part of the value stack gets, computed by the Compiler
+        int maxStack = 1;
+        Function(String name, int arity){
+            this.name = name;
+            this.arity = arity;
+        }
+        @Override
+        public String toString(){
+            return name == null? "<script>" : "<fn " + name + ">";
+        }
+    }
+    static class Closure{
+        final Function function;
+        final Upvalue[] upvalues;
+        Closure(Function function){
+            this.function = function;
+            this.upvalues = new Upvalue[function.upvalueCount];
+        }
+        @Override
+        public String toString(){
+            return function.toString();
+        }
+    }
+    //a captured variable: points into the stack while open, holds the value once closed
+    static class Upvalue{
+        int slot;
+        Object closed;
+        Upvalue next;
+        Upvalue(int slot, Upvalue next){
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+    //compilers bind global names to these cells once, the VM never hashes a name at runtime
+    static class Global{
+        final String name;
+        Object value;
+        boolean defined = false;
+        Global(String name){
+            this.name = name;
+        }
+    }
+    private static class CallFrame{
+        Closure closure;
+        int ip;
+        int base;
+    }
+    private Global[] globals = new Global[64];
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    //open upvalues sorted by descending stack slot
+    private Upvalue openUpvalues = null;
+
+    VM(){
+        Global clock = global(Symbols.intern("clock").id);
+        clock.defined = true;
+        clock.value = new LoxCallable() {
+            @Override
+            public int arity(){
+                return 0;
+            }
+            @Override
+            public Object call0(Interpreter interpreter){
+                return (double)System.currentTimeMillis()/1000.0;
+            }
+            @Override
+            public Object call(Interpreter interpreter, Object[] arguments){
+                return call0(interpreter);
+            }
+            @Override
+            public String toString(){
+                return "<native function>";
+            }
+        };
+        for(int i = 0; i < frames.length; i++) frames[i] = new CallFrame();
+    }
+    public void interpret(Function script){
+        try{
+            Closure closure = new Closure(script);
+            ensureStack(script.maxStack);
+            push(closure);
+            callFrame(closure, 0);
+            run();
+        } catch(RuntimeError e){
+            Arrays.fill(stack, null);
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            Lox.runtimeError(e);
+        }
+    }
+    private void run(){
+        CallFrame frame = frames[frameCount-1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        Object[] stack = this.stack;
+        int ip = frame.ip, base = frame.base, sp = this.sp;
+        for(;;){
+            switch(code[ip++]){
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = true; break;
+                case OpCode.FALSE: stack[sp++] = false; break;
+                case OpCode.POP: stack[--sp] = null; break;
+                case OpCode.GET_LOCAL:
+                    stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + (code[ip++] & 0xff)] = stack[sp-1];
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    Global global = (Global)constants[((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)];
+                    ip += 2;
+                    if(!global.defined) throw error(frame, ip, "Undefined variable '" + global.name + "'.");
+                    stack[sp++] = global.value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    Global global = (Global)constants[((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)];
+                    ip += 2;
+                    global.value = stack[--sp];
+                    global.defined = true;
+                    stack[sp] = null;
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    Global global = (Global)constants[((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)];
+                    ip += 2;
+                    if(!global.defined) throw error(frame, ip, "Undefined variable '" + global.name + "'.");
+                    global.value = stack[sp-1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    stack[sp++] = upvalue.slot >= 0? stack[upvalue.slot] : upvalue.closed;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if(upvalue.slot >= 0) stack[upvalue.slot] = stack[sp-1];
+                    else upvalue.closed = stack[sp-1];
+                    break;
+                }
+                case OpCode.EQUAL: {
+                    Object r = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp-1] = Interpreter.isEqual(stack[sp-1], r);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object r = stack[--sp];
+                    stack[sp] = null;
+                    stack[sp-1] = !Interpreter.isEqual(stack[sp-1], r);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l > (double)r;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l >= (double)r;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l < (double)r;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l <= (double)r;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(l instanceof Double && r instanceof Double) stack[sp-2] = (double)l + (double)r;
+                    else if(l instanceof String && r instanceof String) stack[sp-2] = (String)l + (String)r;
+                    else throw error(frame, ip, "Both operands must be two numbers or two strings.");
+                    stack[--sp] = null;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l - (double)r;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l * (double)r;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    if((double)r == 0) throw error(frame, ip, "Cannot divide by Zero.");
+                    stack[--sp] = null;
+                    stack[sp-1] = (double)l / (double)r;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp-1] = !Interpreter.isTruthy(stack[sp-1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object r = stack[sp-1];
+                    if(!(r instanceof Double)) throw error(frame, ip, "Operand must be a number.");
+                    stack[sp-1] = -(double)r;
+                    break;
+                }
+                case OpCode.PRINT:
+                    System.out.println(Interpreter.stringify(stack[--sp]));
+                    stack[sp] = null;
+                    break;
+                case OpCode.JUMP:
+                    ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if(!Interpreter.isTruthy(stack[sp-1])) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_TRUE:
+                    if(Interpreter.isTruthy(stack[sp-1])) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE: {
+                    Object cond = stack[--sp];
+                    stack[sp] = null;
+                    if(!Interpreter.isTruthy(cond)) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[--sp] = null;
+                    if(!((double)l > (double)r)) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[--sp] = null;
+                    if(!((double)l >= (double)r)) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[--sp] = null;
+                    if(!((double)l < (double)r)) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL: {
+                    Object l = stack[sp-2], r = stack[sp-1];
+                    if(!(l instanceof Double && r instanceof Double)) throw error(frame, ip, "Operands must be numbers.");
+                    stack[--sp] = null;
+                    stack[--sp] = null;
+                    if(!((double)l <= (double)r)) ip += (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff));
+                    ip += 2;
+                    break;
+                }
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)) - 2;
+                    break;
+                case OpCode.CHECK_CALLABLE: {
+                    Object callee = stack[sp-1];
+                    if(!(callee instanceof Closure || callee instanceof LoxCallable)){
+                        throw error(frame, ip, "Can only call functions and classes.");
+                    }
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argc = code[ip++] & 0xff;
+                    Object callee = stack[sp-1-argc];
+                    if(callee instanceof Closure){
+                        Closure closure = (Closure)callee;
+                        if(argc != closure.function.arity) throw arityError(frame, ip, closure.function.arity, argc);
+                        frame.ip = ip;
+                        frame = callFrame(closure, sp-1-argc);
+                        ensureStack(frame.base + closure.function.maxStack);
+                        stack = this.stack;
+                        code = closure.function.chunk.code;
+                        constants = closure.function.chunk.constants;
+                        ip = 0;
+                        base = frame.base;
+                    } else if(callee instanceof LoxCallable){
+                        LoxCallable fn = (LoxCallable)callee;
+                        if(argc != fn.arity()) throw arityError(frame, ip, fn.arity(), argc);
+                        Object result = argc == 0 ? fn.call0(null) : fn.call(null, Arrays.copyOfRange(stack, sp-argc, sp));
+                        for(int i = sp-argc; i < sp; i++) stack[i] = null;
+                        sp -= argc;
+                        stack[sp-1] = result;
+                    } else{
+                        throw error(frame, ip, "Can only call functions and classes.");
+                    }
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Function function = (Function)constants[((code[ip] & 0xff) << 8) | (code[ip+1] & 0xff)];
+                    ip += 2;
+                    Closure closure = new Closure(function);
+                    for(int i = 0; i < function.upvalueCount; i++){
+                        boolean isLocal = code[ip++] != 0;
+                        int index = code[ip++] & 0xff;
+                        if(isLocal) closure.upvalues[i] = captureUpvalue(base + index);
+                        else closure.upvalues[i] = frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp-1);
+                    stack[--sp] = null;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack, base, sp, null);
+                    sp = base;
+                    if(frameCount == 0){
+                        this.sp = 0;
+                        stack[0] = null;
+                        return;
+                    }
+                    stack[sp++] = result;
+                    frame = frames[frameCount-1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+            }
+        }
+    }
+    //by interned name, see Symbols
+    Global global(int symbol){
+        if(symbol >= globals.length) globals = Arrays.copyOf(globals, Math.max(globals.length * 2, symbol + 1));
+        Global global = globals[symbol];
+        if(global == null){
+            global = new Global(Symbols.name(symbol));
+            globals[symbol] = global;
+        }
+        return global;
+    }
+    private void ensureStack(int size){
+        if(size < stack.length) return;
+        int capacity = stack.length;
+        while(capacity <= size) capacity *= 2;
+        stack = Arrays.copyOf(stack, capacity);
+    }
+    private CallFrame callFrame(Closure closure, int base){
+        if(frameCount == frames.length){
+            frames = Arrays.copyOf(frames, frameCount*2);
+            for(int i = frameCount; i < frames.length; i++) frames[i] = new CallFrame();
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        return frame;
+    }
+    private Upvalue captureUpvalue(int slot){
+        Upvalue prev = null, upvalue = openUpvalues;
+        while(upvalue != null && upvalue.slot > slot){
+            prev = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue != null && upvalue.slot == slot) return upvalue;
+        Upvalue created = new Upvalue(slot, upvalue);
+        if(prev == null) openUpvalues = created;
+        else prev.next = created;
+        return created;
+    }
+    private void closeUpvalues(int last){
+        while(openUpvalues != null && openUpvalues.slot >= last){
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+    private void push(Object val){
+        stack[sp++] = val;
+    }
+    private RuntimeError error(CallFrame frame, int ip, String msg){
+        //every byte of an instruction carries the line of the token that produced it
+        int ln = frame.closure.function.chunk.lines[ip-1];
+        return new RuntimeError(new Token(TokenType.EOF, "", null, ln), msg);
+    }
+    private RuntimeError arityError(CallFrame frame, int ip, int arity, int argc){
+        return error(frame, ip, "Expected " + arity + " arguments but got " + argc + ".");
+    }
+}
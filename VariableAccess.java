@@ -0,0 +1,13 @@
+//where the resolver found a variable, stored on Expr.Variable and Expr.Assign with the slot to use
+final class VariableAccess {
+    //by name in the globals
+    static final byte GLOBAL = 0;
+    //a local of the running function, held directly in its frame slot
+    static final byte LOCAL = 1;
+    //a local of the running function that a nested function captures, held in a Cell in its frame slot
+    static final byte CELL = 2;
+    //a local of an enclosing function, through the running function's upvalue cells
+    static final byte UPVALUE = 3;
+
+    private VariableAccess(){}
+}
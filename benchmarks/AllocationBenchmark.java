@@ -0,0 +1,54 @@
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+//reports heap bytes and local scopes (Metrics.environments) the tree-walking interpreter
+//allocates per loop iteration.
+//from the repository root:
+//  javac -d out *.java benchmarks/AllocationBenchmark.java
+//  java -cp out AllocationBenchmark
+public class AllocationBenchmark {
+    //each workload runs its loop body N times, inside a function unless it says top-level
+    private static final String[][] WORKLOADS = {
+        {"counting loop",
+            "fun run(){ var sum = 0; for (var i = 0; i < N; i = i + 1) sum = sum + i; return sum; } run();"},
+        {"arithmetic expression",
+            "fun run(){ var acc = 0; var i = 0; while (i < N) { acc = acc + i * 0.5 - i / 4 + 1; i = i + 1; } return acc; } run();"},
+        {"comparisons",
+            "fun run(){ var hits = 0; for (var i = 0; i < N; i = i + 1) if (i * 2 < i + 10 and -i <= 0) hits = hits + 1; return hits; } run();"},
+        {"function calls",
+            "fun add(a, b){ return a + b; } fun run(){ var sum = 0; for (var i = 0; i < N; i = i + 1) sum = add(sum, i); return sum; } run();"},
+        {"block-local for loop",
+            "fun run(){ var sum = 0; for (var i = 0; i < N; i = i + 1) { var sq = i * i; sum = sum + sq; } return sum; } run();"},
+        {"top-level while loop",
+            "var sum = 0; var i = 0; while (i < N) { var sq = i * i; sum = sum + sq; i = i + 1; }"},
+    };
+    private static final int SMALL = 100000, LARGE = 1100000;
+
+    public static void main(String[] args){
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        for(String[] workload: WORKLOADS){
+            //warm up so the interpreter itself is compiled before measuring
+            for(int i = 0; i < 5; i++) run(workload[1], SMALL);
+            long start = threads.getThreadAllocatedBytes(thread), scopes = Metrics.environments.sum();
+            run(workload[1], SMALL);
+            long small = threads.getThreadAllocatedBytes(thread) - start, smallScopes = Metrics.environments.sum() - scopes;
+            start = threads.getThreadAllocatedBytes(thread);
+            scopes = Metrics.environments.sum();
+            run(workload[1], LARGE);
+            long large = threads.getThreadAllocatedBytes(thread) - start, largeScopes = Metrics.environments.sum() - scopes;
+            //the difference cancels out scanning, parsing and other per-run costs
+            double perIteration = (double)(large - small) / (LARGE - SMALL);
+            double scopesPerIteration = (double)(largeScopes - smallScopes) / (LARGE - SMALL);
+            System.out.printf("%-24s %8.1f bytes/iteration %6.2f environments/iteration%n", workload[0],
+                perIteration, scopesPerIteration);
+        }
+    }
+    private static void run(String src, int n){
+        List<Token> tokens = new Scanner(src.replace("N", Integer.toString(n))).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        new Resolver().resolve(statements);
+        new Interpreter().interpret(statements);
+    }
+}
@@ -0,0 +1,52 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+
+//heap bytes per source line a large generated script holds on to once parsed, as a tree of Expr/Stmt
+//objects and as a FlatAst (--compact).
+//from the repository root:
+//  javac -d out -sourcepath . Lox.java benchmarks/AstHeapBenchmark.java
+//  java -cp out AstHeapBenchmark
+public class AstHeapBenchmark {
+    private static final int FUNCTIONS = 20000;
+
+    public static void main(String[] args){
+        StringBuilder src = new StringBuilder();
+        int lines = 0;
+        for(int i = 0; i < FUNCTIONS; i++){
+            src.append("fun step").append(i).append("(n, limit) {\n")
+                .append("    var total = 0;\n")
+                .append("    for (var i = 0; i < limit; i = i + 1) {\n")
+                .append("        if (i * 2 > n and i != 3) total = total + i * ").append(i).append(" - n / 2;\n")
+                .append("        else total = total - step").append(i).append("(i, 1);\n")
+                .append("    }\n")
+                .append("    print \"step ").append(i).append("\";\n")
+                .append("    return total;\n")
+                .append("}\n")
+                .append("var result").append(i).append(" = -(").append(i).append(" + 1) * 2;\n");
+            lines += 10;
+        }
+        String script = src.toString();
+        //names are interned for good the first time they are scanned, which shouldn't count against either
+        new Scanner(script).scanTokens();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = used(memory);
+        List<Stmt> tree = new Parser(new Scanner(script)).parse();
+        long treeBytes = used(memory) - before;
+        report("Expr/Stmt tree", treeBytes, lines, tree.size());
+        tree = null;
+        before = used(memory);
+        FlatAst flat = new Parser(new Scanner(script)).parseCompact();
+        long flatBytes = used(memory) - before;
+        report("FlatAst", flatBytes, lines, flat.size());
+    }
+    private static long used(MemoryMXBean memory){
+        for(int i = 0; i < 3; i++) System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+    //statements keeps the parsed program reachable until after it is measured
+    private static void report(String name, long bytes, int lines, int statements){
+        System.out.printf("%-16s %8.1f bytes/line  (%d lines, %d top-level statements)%n",
+            name, (double)bytes / lines, lines, statements);
+    }
+}
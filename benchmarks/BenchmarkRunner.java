@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//runs every program in benchmarks/corpus through Lox.runFile in one warmed-up JVM, reports its
+//wall time, runs per second and peak heap, and compares the times against a stored baseline.
+//The programs take turns over several rounds and each reports the median of its per-round best,
+//so a slow stretch of the machine lands on one round of every program rather than on all the runs
+//of one program.
+//from the repository root:
+//  javac -d out -sourcepath . Lox.java benchmarks/BenchmarkRunner.java
+//  java -cp out BenchmarkRunner [--update] [--threshold 0.40] [--warmup 10] [--rounds 5] [--runs 4]
+//exits with status 1 when a program got slower than its baseline by more than the threshold,
+//and with status 2 when one failed to run. --update rewrites the baseline with the new results.
+//The default threshold is set by the noise on the single-core machine the baseline comes from.
+//Over nine launches a program's median came out at most about 15% slower than its median across the
+//launches, but one launch in nine ran everything 25-35% faster, and a baseline written from such
+//a launch would fail ordinary runs at any threshold below that. Lower it on a quieter machine.
+public class BenchmarkRunner {
+    private static final Path CORPUS = Paths.get("benchmarks", "corpus");
+    private static final Path BASELINE = Paths.get("benchmarks", "baseline.json");
+    private static final Pattern ENTRY = Pattern.compile(
+        "\"([^\"]+)\"\\s*:\\s*\\{\\s*\"ms\"\\s*:\\s*([0-9.Ee+-]+)");
+
+    private static class Result{
+        final String name;
+        final double ms, opsPerSecond, peakHeapMb;
+        Result(String name, double ms, double peakHeapMb){
+            this.name = name;
+            this.ms = ms;
+            this.opsPerSecond = 1000 / ms;
+            this.peakHeapMb = peakHeapMb;
+        }
+    }
+
+    public static void main(String[] args) throws IOException{
+        boolean update = false;
+        double threshold = 0.40;
+        int warmup = 10, rounds = 5, runs = 4;
+        for(int i = 0; i < args.length; i++){
+            switch(args[i]){
+                case "--update": update = true; break;
+                case "--threshold": threshold = Double.parseDouble(args[++i]); break;
+                case "--warmup": warmup = Integer.parseInt(args[++i]); break;
+                case "--rounds": rounds = Integer.parseInt(args[++i]); break;
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Usage: BenchmarkRunner [--update] [--threshold fraction] [--warmup n] [--rounds n] [--runs n]");
+                    System.exit(64);
+            }
+        }
+        List<Result> results = measure(programs(), warmup, rounds, runs);
+        if(results == null) System.exit(2);
+        if(update){
+            writeBaseline(results);
+            report(results, new LinkedHashMap<>(), threshold);
+            System.out.println("baseline written to " + BASELINE);
+            return;
+        }
+        Map<String, Double> baseline = readBaseline();
+        if(!report(results, baseline, threshold)) System.exit(1);
+    }
+
+    private static List<Path> programs() throws IOException{
+        List<Path> programs = new ArrayList<>();
+        try(DirectoryStream<Path> dir = Files.newDirectoryStream(CORPUS, "*.lox")){
+            for(Path program: dir) programs.add(program);
+        }
+        programs.sort(null);
+        return programs;
+    }
+    //every program warmed up, then rounds in which each takes its turn at runs runs. A program's time
+    //is the median over the rounds of its fastest run in the round, the one least disturbed by other
+    //load on the machine. null when a program did not run successfully
+    private static List<Result> measure(List<Path> programs, int warmup, int rounds, int runs) throws IOException{
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try{
+            for(Path program: programs){
+                for(int i = 0; i < warmup; i++){
+                    int status = Lox.runFile(program.toString());
+                    if(status != 0){
+                        out.println(name(program) + ": exited with status " + status);
+                        return null;
+                    }
+                }
+            }
+            double[][] best = new double[programs.size()][rounds];
+            double[] peakHeapMb = new double[programs.size()];
+            for(int round = 0; round < rounds; round++){
+                for(int p = 0; p < programs.size(); p++){
+                    System.gc();
+                    for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+                    best[p][round] = Double.MAX_VALUE;
+                    for(int i = 0; i < runs; i++){
+                        long start = System.nanoTime();
+                        Lox.runFile(programs.get(p).toString());
+                        best[p][round] = Math.min(best[p][round], (System.nanoTime() - start) / 1e6);
+                    }
+                    peakHeapMb[p] = Math.max(peakHeapMb[p], peakHeapMb());
+                }
+            }
+            List<Result> results = new ArrayList<>();
+            for(int p = 0; p < programs.size(); p++){
+                results.add(new Result(name(programs.get(p)), median(best[p]), peakHeapMb[p]));
+            }
+            return results;
+        } finally{
+            System.setOut(out);
+        }
+    }
+    private static String name(Path program){
+        return program.getFileName().toString().replace(".lox", "");
+    }
+    private static double median(double[] values){
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+    //eden is left out: it fills up to its size between collections whatever the program keeps alive
+    private static double peakHeapMb(){
+        long peak = 0;
+        for(MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()){
+            if(pool.getType() == MemoryType.HEAP && !pool.getName().contains("Eden")){
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak / (1024.0 * 1024.0);
+    }
+
+    //prints the results next to the baseline and returns whether nothing regressed
+    private static boolean report(List<Result> results, Map<String, Double> baseline, double threshold){
+        boolean ok = true;
+        System.out.printf("%-20s %10s %10s %12s %10s %8s%n", "benchmark", "ms", "ops/s", "peak heap MB", "baseline", "change");
+        for(Result result: results){
+            Double base = baseline.get(result.name);
+            String change = "", status = "";
+            if(base != null){
+                double delta = (result.ms - base) / base;
+                change = String.format(Locale.ROOT, "%+.1f%%", delta * 100);
+                if(delta > threshold){
+                    status = "  REGRESSED";
+                    ok = false;
+                }
+            }
+            System.out.printf(Locale.ROOT, "%-20s %10.2f %10.2f %12.1f %10s %8s%s%n", result.name, result.ms,
+                result.opsPerSecond, result.peakHeapMb, base == null ? "-" : String.format(Locale.ROOT, "%.2f", base),
+                change, status);
+        }
+        if(!ok) System.out.printf(Locale.ROOT, "slower than the baseline by more than %.0f%%%n", threshold * 100);
+        return ok;
+    }
+    private static Map<String, Double> readBaseline() throws IOException{
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        if(!Files.exists(BASELINE)){
+            System.out.println("no baseline at " + BASELINE + ", run with --update to create one");
+            return baseline;
+        }
+        Matcher entry = ENTRY.matcher(new String(Files.readAllBytes(BASELINE), StandardCharsets.UTF_8));
+        while(entry.find()) baseline.put(entry.group(1), Double.parseDouble(entry.group(2)));
+        return baseline;
+    }
+    private static void writeBaseline(List<Result> results) throws IOException{
+        StringBuilder json = new StringBuilder("{\n");
+        for(int i = 0; i < results.size(); i++){
+            Result result = results.get(i);
+            json.append(String.format(Locale.ROOT, "  \"%s\": {\"ms\": %.2f, \"opsPerSecond\": %.2f, \"peakHeapMb\": %.1f}",
+                result.name, result.ms, result.opsPerSecond, result.peakHeapMb));
+            json.append(i < results.size() - 1 ? ",\n" : "\n");
+        }
+        json.append("}\n");
+        Files.write(BASELINE, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
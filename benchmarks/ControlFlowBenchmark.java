@@ -0,0 +1,38 @@
+import java.util.List;
+
+//times the tree-walking interpreter on code dominated by returns and loop exits.
+//from the repository root:
+//  javac -d out *.java benchmarks/ControlFlowBenchmark.java
+//  java -cp out ControlFlowBenchmark
+public class ControlFlowBenchmark {
+    private static final String[][] WORKLOADS = {
+        {"recursive fib(25)",
+            "fun fib(n){ if (n < 2) return n; return fib(n - 1) + fib(n - 2); } fib(25);"},
+        {"early-return loop",
+            "fun find(limit){ var i = 0; while (true) { i = i + 1; if (i >= limit) return i; } }"
+            + " var total = 0; for (var k = 0; k < 100000; k = k + 1) total = total + find(10);"},
+        {"break out of loop",
+            "fun scan(limit){ var i = 0; while (true) { i = i + 1; if (i >= limit) break; } return i; }"
+            + " var total = 0; for (var k = 0; k < 100000; k = k + 1) total = total + scan(10);"},
+    };
+    private static final int WARMUP = 5, RUNS = 10;
+
+    public static void main(String[] args){
+        for(String[] workload: WORKLOADS){
+            for(int i = 0; i < WARMUP; i++) run(workload[1]);
+            long best = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++){
+                long start = System.nanoTime();
+                run(workload[1]);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-24s %8.2f ms%n", workload[0], best / 1e6);
+        }
+    }
+    private static void run(String src){
+        List<Token> tokens = new Scanner(src).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        new Resolver().resolve(statements);
+        new Interpreter().interpret(statements);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.List;
+
+//parser throughput in tokens per second on large generated expressions, from tokens scanned up front,
+//and how deeply parentheses can nest before the parser overflows a thread with the usual 1 MB stack.
+//from the repository root:
+//  javac -d out -sourcepath . Lox.java benchmarks/ParserBenchmark.java
+//  java -cp out ParserBenchmark
+public class ParserBenchmark {
+    private static final int SIZE = 8 * 1024 * 1024, WARMUP = 5, RUNS = 10;
+    private static final long STACK = 1024 * 1024;
+
+    public static void main(String[] args) throws InterruptedException{
+        String[][] inputs = {
+            {"long sums", "x = a + b * c - d / e + 1 - 2 * f + g;\n"},
+            {"comparisons and logic", "ok = a < b and c >= d or !(e == f) and g != -h;\n"},
+            {"calls", "total = add(mul(a, 2), sub(b, f(c)), g(h(i(1))));\n"},
+            {"nested groups", "y = (((a + (b * (c - (d + 1)))) / 2) + ((e)));\n"},
+        };
+        for(String[] input: inputs){
+            List<Token> tokens = new Scanner(repeat(input[1], SIZE)).scanTokens();
+            for(int i = 0; i < WARMUP; i++) new Parser(tokens).parse();
+            long best = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++){
+                long start = System.nanoTime();
+                new Parser(tokens).parse();
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-24s %8.1f M tokens/s%n", input[0], tokens.size() / (best / 1e9) / 1e6);
+        }
+        System.out.printf("%-24s %8d parentheses on a %d KB stack%n", "deepest nesting", deepest(), STACK / 1024);
+    }
+    private static String repeat(String text, int size){
+        StringBuilder src = new StringBuilder(size + text.length());
+        while(src.length() < size) src.append(text);
+        return src.toString();
+    }
+    //binary search for the most parentheses around a literal that still parse
+    private static int deepest() throws InterruptedException{
+        int lo = 1, hi = 1 << 20;
+        while(lo < hi){
+            int depth = (lo + hi + 1) >>> 1;
+            if(parses(depth)) lo = depth;
+            else hi = depth - 1;
+        }
+        return lo;
+    }
+    private static boolean parses(int depth) throws InterruptedException{
+        List<Token> tokens = new Scanner("(".repeat(depth) + "1" + ")".repeat(depth) + ";").scanTokens();
+        boolean[] parsed = {false};
+        Thread thread = new Thread(null, () -> {
+            try{
+                new Parser(tokens).parse();
+                parsed[0] = true;
+            } catch(StackOverflowError e){
+                //too deep
+            }
+        }, "parser", STACK);
+        thread.start();
+        thread.join();
+        return parsed[0];
+    }
+}
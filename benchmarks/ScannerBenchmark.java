@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+//scanner throughput in MB/s on large inputs, the way runFile scans a script: from a buffer of UTF-8
+//bytes, one token at a time. The tokens are dropped as they come, as the parser would drop them.
+//from the repository root:
+//  javac -d out -sourcepath . Lox.java benchmarks/ScannerBenchmark.java
+//  java -cp out ScannerBenchmark
+public class ScannerBenchmark {
+    private static final int SIZE = 64 * 1024 * 1024, WARMUP = 3, RUNS = 5;
+
+    public static void main(String[] args) throws IOException{
+        StringBuilder corpus = new StringBuilder();
+        try(Stream<Path> files = Files.list(Paths.get("benchmarks", "corpus"))){
+            for(Path file: (Iterable<Path>)files.sorted()::iterator) corpus.append(Files.readString(file)).append('\n');
+        }
+        String[][] inputs = {
+            {"benchmark corpus", corpus.toString()},
+            {"indented code",
+                "fun area(width, height) {\n        var result = width * height;\n"
+                + "        if (result > 100) {\n                return result - 100;\n        }\n"
+                + "        return result;\n}\n"},
+            {"long names",
+                "var customer_account_balance_total = customer_account_balance_total + transaction_amount_in_cents;\n"},
+            {"comments",
+                "// this line explains what the next statement does, at the length comments usually have\n"
+                + "var counter = 0;\n"},
+            {"string literals",
+                "print \"a string literal long enough to be worth scanning in bulk, like a message\";\n"},
+        };
+        for(String[] input: inputs){
+            ByteBuffer src = ByteBuffer.wrap(repeat(input[1], SIZE).getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < WARMUP; i++) scan(src);
+            long best = Long.MAX_VALUE;
+            for(int i = 0; i < RUNS; i++){
+                long start = System.nanoTime();
+                scan(src);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            System.out.printf("%-24s %8.1f MB/s%n", input[0], src.limit() / (best / 1e9) / (1024 * 1024));
+        }
+    }
+    private static String repeat(String text, int size){
+        StringBuilder src = new StringBuilder(size + text.length());
+        while(src.length() < size) src.append(text);
+        return src.toString();
+    }
+    private static void scan(ByteBuffer src){
+        Scanner scanner = new Scanner(src);
+        while(scanner.next().type != TokenType.EOF);
+    }
+}
@@ -0,0 +1,75 @@
+package jlox.jmh;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//throughput of the stages before execution, on every workload concatenated into a ~256KB program.
+//the bytes and nodes counters are reported per second: bytes/s for the scanner, nodes/s for the parser.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontEndBenchmark {
+    @State(Scope.Benchmark)
+    public static class Program{
+        String src;
+        List<?> tokens;
+        List<?> statements;
+        long nodes;
+        @Setup
+        public void setup() throws Throwable{
+            src = Jlox.corpus(256 * 1024);
+            tokens = Jlox.scan(src);
+            statements = Jlox.parse(tokens);
+            nodes = Jlox.countNodes(statements);
+        }
+    }
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes{
+        public long bytes;
+        @Setup(Level.Iteration)
+        public void reset(){
+            bytes = 0;
+        }
+    }
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Nodes{
+        public long nodes;
+        @Setup(Level.Iteration)
+        public void reset(){
+            nodes = 0;
+        }
+    }
+
+    @Benchmark
+    public List<?> scanTokens(Program program, Bytes counter) throws Throwable{
+        counter.bytes += program.src.length();
+        return Jlox.scan(program.src);
+    }
+    @Benchmark
+    public List<?> parse(Program program, Nodes counter) throws Throwable{
+        counter.nodes += program.nodes;
+        return Jlox.parse(program.tokens);
+    }
+    @Benchmark
+    public void resolve(Program program, Nodes counter) throws Throwable{
+        counter.nodes += program.nodes;
+        Jlox.resolve(program.statements);
+    }
+}
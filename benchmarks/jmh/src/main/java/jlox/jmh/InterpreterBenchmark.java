@@ -0,0 +1,50 @@
+package jlox.jmh;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//time to run one workload on a fresh tree-walking interpreter, the program being parsed and resolved once.
+//output of print statements is discarded, so the printing workload measures formatting and the println path.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+    @Param({"arithmetic", "recursion", "closures", "strings", "printing"})
+    public String workload;
+    private List<?> statements;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Throwable{
+        statements = Jlox.compile(Jlox.workload(workload));
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    @TearDown
+    public void tearDown(){
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void interpret() throws Throwable{
+        Jlox.interpret(statements);
+    }
+}
@@ -0,0 +1,110 @@
+package jlox.jmh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+//entry points into the interpreter's pipeline. The interpreter lives in the default package, which
+//named packages (required by JMH) cannot import, so its classes are reached through method handles.
+final class Jlox {
+    static final String[] WORKLOADS = {"arithmetic", "recursion", "closures", "strings", "printing"};
+
+    private static final MethodHandle NEW_SCANNER, SCAN_TOKENS, NEW_PARSER, PARSE,
+        NEW_RESOLVER, RESOLVE, NEW_OPTIMIZER, OPTIMIZE, NEW_INTERPRETER, INTERPRET;
+    private static final Class<?> EXPR, STMT;
+    static{
+        try{
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> scanner = Class.forName("Scanner"), parser = Class.forName("Parser"),
+                resolver = Class.forName("Resolver"), optimizer = Class.forName("Optimizer"),
+                interpreter = Class.forName("Interpreter");
+            NEW_SCANNER = constructor(lookup, scanner, String.class);
+            SCAN_TOKENS = method(lookup, scanner, "scanTokens", List.class);
+            NEW_PARSER = constructor(lookup, parser, List.class);
+            PARSE = method(lookup, parser, "parse", List.class);
+            NEW_RESOLVER = constructor(lookup, resolver);
+            RESOLVE = method(lookup, resolver, "resolve", void.class, List.class);
+            NEW_OPTIMIZER = constructor(lookup, optimizer);
+            OPTIMIZE = method(lookup, optimizer, "optimize", List.class, List.class);
+            NEW_INTERPRETER = constructor(lookup, interpreter);
+            INTERPRET = method(lookup, interpreter, "interpret", void.class, List.class);
+            EXPR = Class.forName("Expr");
+            STMT = Class.forName("Stmt");
+        } catch(ReflectiveOperationException e){
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    private Jlox(){}
+
+    private static MethodHandle constructor(MethodHandles.Lookup lookup, Class<?> cls, Class<?>... params)
+            throws ReflectiveOperationException{
+        MethodHandle handle = MethodHandles.privateLookupIn(cls, lookup)
+            .findConstructor(cls, MethodType.methodType(void.class, params));
+        return handle.asType(handle.type().changeReturnType(Object.class));
+    }
+    private static MethodHandle method(MethodHandles.Lookup lookup, Class<?> cls, String name,
+            Class<?> ret, Class<?>... params) throws ReflectiveOperationException{
+        MethodHandle handle = MethodHandles.privateLookupIn(cls, lookup)
+            .findVirtual(cls, name, MethodType.methodType(ret, params));
+        return handle.asType(handle.type().changeParameterType(0, Object.class));
+    }
+
+    static List<?> scan(String src) throws Throwable{
+        return (List<?>)SCAN_TOKENS.invokeExact(NEW_SCANNER.invokeExact(src));
+    }
+    static List<?> parse(List<?> tokens) throws Throwable{
+        return (List<?>)PARSE.invokeExact(NEW_PARSER.invokeExact((List)tokens));
+    }
+    static void resolve(List<?> statements) throws Throwable{
+        RESOLVE.invokeExact(NEW_RESOLVER.invokeExact(), (List)statements);
+    }
+    //the same front end Lox.run puts a program through before running it
+    static List<?> compile(String src) throws Throwable{
+        List<?> statements = parse(scan(src));
+        resolve(statements);
+        statements = (List<?>)OPTIMIZE.invokeExact(NEW_OPTIMIZER.invokeExact(), (List)statements);
+        resolve(statements);
+        return statements;
+    }
+    static void interpret(List<?> statements) throws Throwable{
+        INTERPRET.invokeExact(NEW_INTERPRETER.invokeExact(), (List)statements);
+    }
+
+    static String workload(String name) throws IOException{
+        try(InputStream in = Jlox.class.getResourceAsStream("/workloads/" + name + ".lox")){
+            if(in == null) throw new IOException("no workload named " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+    //every workload, repeated until the source is at least minBytes long
+    static String corpus(int minBytes) throws IOException{
+        StringBuilder all = new StringBuilder();
+        for(String name: WORKLOADS) all.append(workload(name)).append('\n');
+        StringBuilder src = new StringBuilder();
+        while(src.length() < minBytes) src.append(all);
+        return src.toString();
+    }
+
+    //number of Expr and Stmt nodes in a parsed program
+    static long countNodes(Object node) throws IllegalAccessException{
+        if(node instanceof List){
+            long count = 0;
+            for(Object element: (List<?>)node) count += countNodes(element);
+            return count;
+        }
+        if(!EXPR.isInstance(node) && !STMT.isInstance(node)) return 0;
+        long count = 1;
+        for(Field field: node.getClass().getDeclaredFields()){
+            if(Modifier.isStatic(field.getModifiers())) continue;
+            field.setAccessible(true);
+            count += countNodes(field.get(node));
+        }
+        return count;
+    }
+}
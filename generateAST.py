@@ -12,6 +12,14 @@ ExprTypes = {
     "Variable": "Token name",
     "Call": "Expr callee, Token paren, List<Expr> arguments"
 }
+#mutable fields filled in after parsing: resolution results, specializations, coverage ids and compiled code
+ExprResolved = {
+    "Assign": "byte access = VariableAccess.GLOBAL, int slot, GlobalCell global",
+    "Binary": "byte node = BinaryNode.UNINITIALIZED",
+    "Logical": "int id",
+    "Unary": "byte node = UnaryNode.UNINITIALIZED",
+    "Variable": "byte access = VariableAccess.GLOBAL, int slot, GlobalCell global"
+}
 
 StmtBase = "Stmt"
 StmtPath = outputDir + "/" + StmtBase + ".java"
@@ -23,12 +31,24 @@ StmtTypes = {
     "Print": "Expr expr",
     "Return": "Token keyword, Expr value",
     "Var": "Token name , Expr initializer",
-    "While": "Expr condition, Stmt body",
+    "While": "Expr condition, Stmt body, Expr increment",
     "Break": "Token name",
     "Continue": "Token keyword"
 }
+StmtResolved = {
+    "Block": "int frameSize",
+    "Function": "int slot = -1, boolean captured, int frameSize, int[] cellParams, int[] upvalues, int calls, boolean jitted, CompiledFunction compiled",
+    "Return": "boolean tailCall",
+    "Var": "int slot = -1, boolean captured",
+    "While": "int frameSize, int counter = -1, double step, boolean counterRead, int iterations, boolean jitted, CompiledFunction compiled"
+}
+
+#fields shared by every node of a base class, also filled in after construction
+BaseFields = {
+    "Stmt": "int ln, int id"
+}
 
-def defineClass(base, path, types):
+def defineClass(base, path, types, resolved):
     with open(path, "w") as out:
         out.write("import java.util.List;\n")
         out.write("abstract class " + base + "{\n")
@@ -40,6 +60,9 @@ def defineClass(base, path, types):
         out.write("\t}\n")
         #abstract accept definition
         out.write("\tabstract <R> R accept(Visitor<R> visitor);\n")
+        if base in BaseFields:
+            for field in BaseFields[base].split(", "):
+                out.write("\t" + field + ";\n")
 
         #types 
         for className, fields in types.items():
@@ -59,8 +82,11 @@ def defineClass(base, path, types):
             #data fields
             for field in fieldsList:
                 out.write("\t\tfinal " + field + ";\n")
+            if className in resolved:
+                for field in resolved[className].split(", "):
+                    out.write("\t\t" + field + ";\n")
             out.write("\t}\n")
         out.write("}")
 
-defineClass(ExprBase, ExprPath, ExprTypes)   
-defineClass(StmtBase, StmtPath, StmtTypes)
\ No newline at end of file
+defineClass(ExprBase, ExprPath, ExprTypes, ExprResolved)   
+defineClass(StmtBase, StmtPath, StmtTypes, StmtResolved)
\ No newline at end of file
@@ -0,0 +1,130 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+//runs the Lox scripts in tests/ in a fresh JVM each, on every backend, and checks what they print and
+//the status they exit with against comments in the script:
+//  // expect: line          a line of standard output, in order
+//  // error: line           a line of standard error, in order; stderr must match them exactly
+//  // error contains: text  text somewhere in standard error; stderr is then only checked for these
+//  // exit: status          the exit status, 0 if not given
+//  // flags: --a --b        runs the script once with these flags instead of once per backend
+//scripts run in a scratch directory, where reports like <script>.lcov end up.
+//`gradle check` runs them, or from the repository root:
+//  javac -d out -sourcepath . Lox.java && javac -d out tests/ScriptTests.java
+//  java -cp out ScriptTests tests out
+public class ScriptTests {
+    private static final String[][] BACKENDS = {{}, {"--vm"}, {"--jit"}, {"--compact"}};
+
+    public static void main(String[] args) throws IOException, InterruptedException{
+        Path dir = Paths.get(args[0]);
+        String classpath = args[1];
+        List<Path> scripts = new ArrayList<>();
+        try(Stream<Path> files = Files.list(dir)){
+            files.filter(file -> file.toString().endsWith(".lox")).sorted().forEach(scripts::add);
+        }
+        Path scratch = Files.createTempDirectory("lox-tests");
+        int failures = 0;
+        for(Path script: scripts){
+            Expectations expected = new Expectations(Files.readAllLines(script, StandardCharsets.UTF_8));
+            String[][] runs = expected.flags != null ? new String[][]{expected.flags} : BACKENDS;
+            for(String[] flags: runs){
+                String failure = run(classpath, flags, script.toAbsolutePath(), scratch, expected);
+                if(failure == null) continue;
+                failures++;
+                System.out.println("FAIL " + script.getFileName() + " " + String.join(" ", flags) + "\n" + failure);
+            }
+        }
+        failures += startup(classpath, scratch);
+        System.out.println(scripts.size() + " scripts, " + failures + " failures");
+        if(failures > 0) System.exit(1);
+    }
+
+    private static class Expectations{
+        final List<String> stdout = new ArrayList<>(), stderr = new ArrayList<>(), stderrContains = new ArrayList<>();
+        int exit = 0;
+        String[] flags = null;
+        Expectations(List<String> lines){
+            for(String line: lines){
+                int comment = line.indexOf("// ");
+                if(comment == -1) continue;
+                String directive = line.substring(comment + 3);
+                if(directive.startsWith("expect: ")) stdout.add(directive.substring(8));
+                else if(directive.startsWith("error: ")) stderr.add(directive.substring(7));
+                else if(directive.startsWith("error contains: ")) stderrContains.add(directive.substring(16));
+                else if(directive.startsWith("exit: ")) exit = Integer.parseInt(directive.substring(6).trim());
+                else if(directive.startsWith("flags: ")) flags = directive.substring(7).trim().split(" +");
+            }
+        }
+    }
+
+    //null when the run went as expected, otherwise what differed
+    private static String run(String classpath, String[] flags, Path script, Path scratch, Expectations expected)
+        throws IOException, InterruptedException{
+        Result result = lox(classpath, flags, script, scratch);
+        StringBuilder failure = new StringBuilder();
+        if(!result.stdout.equals(expected.stdout)) failure.append("  stdout ").append(result.stdout)
+            .append("\n  expected ").append(expected.stdout).append('\n');
+        if(expected.stderrContains.isEmpty()){
+            if(!result.stderr.equals(expected.stderr)) failure.append("  stderr ").append(result.stderr)
+                .append("\n  expected ").append(expected.stderr).append('\n');
+        }
+        else{
+            String stderr = String.join("\n", result.stderr);
+            for(String text: expected.stderrContains){
+                if(!stderr.contains(text)) failure.append("  stderr lacks ").append(text).append('\n');
+            }
+        }
+        if(result.exit != expected.exit) failure.append("  exit ").append(result.exit)
+            .append(", expected ").append(expected.exit).append('\n');
+        return failure.length() == 0 ? null : failure.toString();
+    }
+
+    //a launch without a recording must not start Flight Recorder: that alone costs hundreds of classes and
+    //a few hundred milliseconds, which benchmarks running in one warmed-up JVM never see
+    private static int startup(String classpath, Path scratch) throws IOException, InterruptedException{
+        Path script = scratch.resolve("startup.lox");
+        Files.writeString(script, "print 1;\n");
+        Result result = lox(classpath, new String[]{"-verbose:class"}, new String[0], script, scratch);
+        long recorder = result.stdout.stream().filter(line -> line.contains("jdk.jfr.internal.")).count();
+        if(recorder == 0) return 0;
+        System.out.println("FAIL starting up without a recording loads " + recorder + " Flight Recorder classes");
+        return 1;
+    }
+
+    private static class Result{
+        final List<String> stdout, stderr;
+        final int exit;
+        Result(List<String> stdout, List<String> stderr, int exit){
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.exit = exit;
+        }
+    }
+    private static Result lox(String classpath, String[] flags, Path script, Path scratch)
+        throws IOException, InterruptedException{
+        return lox(classpath, new String[0], flags, script, scratch);
+    }
+    private static Result lox(String classpath, String[] jvmFlags, String[] flags, Path script, Path scratch)
+        throws IOException, InterruptedException{
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for(String flag: jvmFlags) command.add(flag);
+        command.add("-cp");
+        command.add(new File(classpath).getAbsolutePath());
+        command.add("Lox");
+        for(String flag: flags) command.add(flag);
+        command.add(script.toString());
+        Path out = scratch.resolve("stdout"), err = scratch.resolve("stderr");
+        Process process = new ProcessBuilder(command).directory(scratch.toFile())
+            .redirectOutput(out.toFile()).redirectError(err.toFile()).start();
+        int exit = process.waitFor();
+        return new Result(Files.readAllLines(out, StandardCharsets.UTF_8), Files.readAllLines(err, StandardCharsets.UTF_8), exit);
+    }
+}